@@ -0,0 +1,209 @@
+package com.swmansion.enriched
+
+import android.content.Context
+import android.graphics.Typeface
+import android.text.Spannable
+import android.text.Spanned
+import android.util.Log
+import android.util.LruCache
+import android.util.TypedValue
+import com.facebook.react.bridge.ReadableMap
+import com.facebook.react.uimanager.PixelUtil
+import com.facebook.react.views.text.ReactTypefaceUtils.applyStyles
+import com.facebook.react.views.text.ReactTypefaceUtils.parseFontStyle
+import com.facebook.react.views.text.ReactTypefaceUtils.parseFontWeight
+import com.swmansion.enriched.styles.HtmlStyle
+import com.swmansion.enriched.utils.EnrichedParser
+import com.swmansion.enriched.utils.EnrichedSnapshotCodec
+import java.io.IOException
+import java.util.WeakHashMap
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.math.ceil
+
+/**
+ * Resolves paint parameters and the HTML style of an input from its props, without creating the view.
+ * Resolved typefaces and styles are shared between inputs. Safe to call from the layout thread.
+ *
+ * Inputs mounted with the same default value and styles (eg. reply boxes in a feed) also share the
+ * parsed default value and its measured sizes. The view reuses the parsed value too, instead of
+ * parsing the HTML again when the default value is applied.
+ */
+object EnrichedTextInputMeasurer {
+  private data class TypefaceKey(
+    val fontFamily: String?,
+    val fontStyle: Int,
+    val fontWeight: Int,
+  )
+
+  private data class HtmlStyleKey(
+    val style: Map<String, Any?>,
+    val fontSize: Float?,
+  )
+
+  private data class ParsedValueKey(
+    val value: String,
+    val htmlStyle: HtmlStyle,
+  )
+
+  private class ParsedValue(
+    val text: CharSequence,
+    // Spans can't be shared between views, every view decodes its own copy
+    val snapshot: ByteArray?,
+  )
+
+  private data class SizeKey(
+    val value: String?,
+    val htmlStyle: HtmlStyle,
+    val paintParams: MeasurementStore.PaintParams,
+    val width: Float,
+  )
+
+  private val typefaces = ConcurrentHashMap<TypefaceKey, Typeface>()
+
+  // Colors may be resolved from the theme, so styles are cached per context. Contexts are weakly referenced,
+  // so that the ones of destroyed surfaces and their activities can be collected
+  private val htmlStyles = WeakHashMap<Context, LruCache<HtmlStyleKey, HtmlStyle>>()
+  private val parsedValues = LruCache<ParsedValueKey, ParsedValue>(PARSED_VALUES_CAPACITY)
+  private val sizes = LruCache<SizeKey, Long>(SIZES_CAPACITY)
+
+  private const val HTML_STYLES_CAPACITY = 16
+  private const val PARSED_VALUES_CAPACITY = 16
+  private const val SIZES_CAPACITY = 64
+
+  // Must be sorted by attribute id
+  private val defaultTextAttributes = intArrayOf(android.R.attr.textAppearance, android.R.attr.textSize)
+
+  fun getPaintParams(
+    context: Context,
+    props: ReadableMap?,
+  ): MeasurementStore.PaintParams {
+    val fontSize = getFontSize(props) ?: getDefaultFontSize(context)
+
+    val key =
+      TypefaceKey(
+        props?.getString("fontFamily"),
+        parseFontStyle(props?.getString("fontStyle")),
+        parseFontWeight(props?.getString("fontWeight")),
+      )
+    val typeface =
+      typefaces.getOrPut(key) {
+        applyStyles(Typeface.DEFAULT, key.fontStyle, key.fontWeight, key.fontFamily, context.assets)
+      }
+
+    return MeasurementStore.PaintParams(typeface, fontSize)
+  }
+
+  fun getHtmlStyle(
+    context: Context,
+    props: ReadableMap?,
+  ): HtmlStyle {
+    val style = props?.getMap("htmlStyle")
+    val fontSize = getFontSize(props)
+    val key = HtmlStyleKey(style?.toHashMap() ?: emptyMap(), fontSize)
+
+    val styles = synchronized(htmlStyles) { htmlStyles.getOrPut(context) { LruCache(HTML_STYLES_CAPACITY) } }
+    styles.get(key)?.let { return it }
+
+    return HtmlStyle(context, fontSize, style).also { styles.put(key, it) }
+  }
+
+  // Returns either: Spannable parsed from HTML defaultValue, or plain text defaultValue, or "I" if no defaultValue
+  fun getInitialText(
+    context: Context,
+    props: ReadableMap?,
+  ): CharSequence {
+    val defaultValue = props?.getString("defaultValue")
+
+    // If there is no default value, assume text is one line, "I" is a good approximation of height
+    if (defaultValue == null) return "I"
+
+    val isHtml = defaultValue.startsWith("<html>") && defaultValue.endsWith("</html>")
+    if (!isHtml) return defaultValue
+
+    val htmlStyle = getHtmlStyle(context, props)
+    val key = ParsedValueKey(defaultValue, htmlStyle)
+    parsedValues.get(key)?.let { return it.text }
+
+    try {
+      val parsed = EnrichedParser.fromHtml(defaultValue, htmlStyle, null)
+      val text = parsed.trimEnd('\n')
+      if (defaultValue.length < EnrichedTextInputView.ASYNC_PARSE_THRESHOLD) {
+        val snapshot = (text as? Spanned)?.let { EnrichedSnapshotCodec.encode(it) }
+        parsedValues.put(key, ParsedValue(text, snapshot))
+      }
+      return text
+    } catch (e: Exception) {
+      Log.w("MeasurementStore", "Error parsing initial HTML text: ${e.message}")
+      return defaultValue
+    }
+  }
+
+  // Returns a copy of the default value parsed during measurement, if it was parsed with an equal style
+  fun getParsedValue(
+    value: String,
+    htmlStyle: HtmlStyle,
+  ): Spannable? {
+    val snapshot = parsedValues.get(ParsedValueKey(value, htmlStyle))?.snapshot ?: return null
+
+    return try {
+      EnrichedSnapshotCodec.decode(snapshot, htmlStyle)
+    } catch (e: IOException) {
+      null
+    }
+  }
+
+  fun getCachedSize(
+    context: Context,
+    props: ReadableMap?,
+    paintParams: MeasurementStore.PaintParams,
+    width: Float,
+  ): Long? = sizes.get(getSizeKey(context, props, paintParams, width))
+
+  fun cacheSize(
+    context: Context,
+    props: ReadableMap?,
+    paintParams: MeasurementStore.PaintParams,
+    width: Float,
+    size: Long,
+  ) {
+    sizes.put(getSizeKey(context, props, paintParams, width), size)
+  }
+
+  private fun getSizeKey(
+    context: Context,
+    props: ReadableMap?,
+    paintParams: MeasurementStore.PaintParams,
+    width: Float,
+  ): SizeKey = SizeKey(props?.getString("defaultValue"), getHtmlStyle(context, props), paintParams, width)
+
+  // Same conversion as in EnrichedTextInputView.setFontSize
+  private fun getFontSize(props: ReadableMap?): Float? {
+    if (props == null || !props.hasKey("fontSize") || props.isNull("fontSize")) return null
+
+    val fontSize = props.getDouble("fontSize").toFloat()
+    if (fontSize == 0f) return null
+
+    return ceil(PixelUtil.toPixelFromSP(fontSize))
+  }
+
+  // Text size an EditText gets from the theme, when no font size is specified. Not cached, as it depends on
+  // the theme of the context and on the configuration (font scale and density), which can change at runtime
+  private fun getDefaultFontSize(context: Context): Float {
+    val attributes = context.obtainStyledAttributes(null, defaultTextAttributes, android.R.attr.editTextStyle, 0)
+    val appearance = attributes.getResourceId(0, 0)
+    var fontSize = attributes.getDimension(1, 0f)
+    attributes.recycle()
+
+    if (fontSize == 0f && appearance != 0) {
+      val appearanceAttributes = context.obtainStyledAttributes(appearance, intArrayOf(android.R.attr.textSize))
+      fontSize = appearanceAttributes.getDimension(0, 0f)
+      appearanceAttributes.recycle()
+    }
+
+    if (fontSize == 0f) {
+      fontSize = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 14f, context.resources.displayMetrics)
+    }
+
+    return fontSize
+  }
+}
@@ -0,0 +1,152 @@
+package com.swmansion.enriched
+
+import android.util.Base64
+import com.facebook.react.bridge.Promise
+import com.facebook.react.bridge.ReactApplicationContext
+import com.facebook.react.bridge.UiThreadUtil
+import com.facebook.react.module.annotations.ReactModule
+import java.io.IOException
+import java.lang.ref.WeakReference
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Reads the content of an input synchronously from JS, without the requestHTML event round trip.
+ * Cached HTML is returned straight from the JS thread, otherwise the UI thread is asked to serialize
+ * the document. Synchronous reads return null if the view is not found, the text is longer than the
+ * given limit or the UI thread is busy, in which case JS falls back to the asynchronous path.
+ */
+@ReactModule(name = EnrichedTextInputModule.NAME)
+class EnrichedTextInputModule(
+  reactContext: ReactApplicationContext,
+) : NativeEnrichedTextInputModuleSpec(reactContext) {
+  override fun getName(): String = NAME
+
+  override fun getHtml(
+    viewTag: Double,
+    maxTextLength: Double,
+  ): String? {
+    val view = findView(viewTag) ?: return null
+    val limit = maxTextLength.toInt()
+
+    val cachedHtml = view.getCachedHtml(view.htmlOutputOption, limit)
+    if (cachedHtml != null) return cachedHtml
+
+    return readOnUiThread { view.getHtmlIfShorterThan(limit) }
+  }
+
+  override fun getText(
+    viewTag: Double,
+    maxTextLength: Double,
+  ): String? {
+    val view = findView(viewTag) ?: return null
+    return readOnUiThread { view.getTextIfShorterThan(maxTextLength.toInt()) }
+  }
+
+  override fun requestText(
+    viewTag: Double,
+    promise: Promise,
+  ) {
+    val view = findView(viewTag)
+    if (view == null) {
+      promise.reject("E_VIEW_NOT_FOUND", "EnrichedTextInput with tag ${viewTag.toInt()} not found")
+      return
+    }
+
+    UiThreadUtil.runOnUiThread {
+      promise.resolve(view.getTextIfShorterThan(Int.MAX_VALUE) ?: "")
+    }
+  }
+
+  override fun exportSnapshot(
+    viewTag: Double,
+    promise: Promise,
+  ) {
+    val view = findView(viewTag)
+    if (view == null) {
+      promise.reject("E_VIEW_NOT_FOUND", "EnrichedTextInput with tag ${viewTag.toInt()} not found")
+      return
+    }
+
+    UiThreadUtil.runOnUiThread {
+      promise.resolve(Base64.encodeToString(view.exportSnapshot(), Base64.NO_WRAP))
+    }
+  }
+
+  override fun importSnapshot(
+    viewTag: Double,
+    snapshot: String,
+    promise: Promise,
+  ) {
+    val view = findView(viewTag)
+    if (view == null) {
+      promise.reject("E_VIEW_NOT_FOUND", "EnrichedTextInput with tag ${viewTag.toInt()} not found")
+      return
+    }
+
+    UiThreadUtil.runOnUiThread {
+      val bytes =
+        try {
+          Base64.decode(snapshot, Base64.NO_WRAP)
+        } catch (e: IllegalArgumentException) {
+          promise.reject("E_INVALID_SNAPSHOT", "Snapshot is not valid base64", e)
+          return@runOnUiThread
+        }
+
+      try {
+        view.importSnapshot(bytes)
+        promise.resolve(null)
+      } catch (e: IOException) {
+        promise.reject("E_INVALID_SNAPSHOT", "Error decoding snapshot: ${e.message}", e)
+      } catch (e: RuntimeException) {
+        // Never crash the UI thread because of a snapshot the codec failed to reject
+        promise.reject("E_INVALID_SNAPSHOT", "Error applying snapshot: ${e.message}", e)
+      }
+    }
+  }
+
+  private fun findView(viewTag: Double): EnrichedTextInputView? = views[viewTag.toInt()]?.get()
+
+  private fun <T> readOnUiThread(block: () -> T?): T? {
+    if (UiThreadUtil.isOnUiThread()) return block()
+
+    val result = AtomicReference<T?>()
+    val isCancelled = AtomicBoolean()
+    val latch = CountDownLatch(1)
+    UiThreadUtil.runOnUiThread {
+      try {
+        // JS has already moved on to the asynchronous path
+        if (!isCancelled.get()) result.set(block())
+      } finally {
+        latch.countDown()
+      }
+    }
+
+    // Never block JS for long, eg. when the UI thread waits for JS itself. A read that has already started
+    // still completes and caches the HTML, which the asynchronous request queued after it then reuses
+    if (!latch.await(UI_THREAD_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+      isCancelled.set(true)
+      return null
+    }
+    return result.get()
+  }
+
+  companion object {
+    const val NAME = "EnrichedTextInputModule"
+
+    private const val UI_THREAD_TIMEOUT_MS = 100L
+
+    private val views = ConcurrentHashMap<Int, WeakReference<EnrichedTextInputView>>()
+
+    fun registerView(view: EnrichedTextInputView) {
+      views[view.id] = WeakReference(view)
+    }
+
+    fun unregisterView(view: EnrichedTextInputView) {
+      if (views[view.id]?.get() === view) views.remove(view.id)
+    }
+  }
+}
@@ -9,8 +9,13 @@ import android.graphics.Color
 import android.graphics.Rect
 import android.graphics.text.LineBreaker
 import android.os.Build
+import android.os.Bundle
+import android.os.Parcelable
 import android.text.InputType
+import android.text.NoCopySpan
 import android.text.Spannable
+import android.text.SpannableStringBuilder
+import android.text.Spanned
 import android.util.AttributeSet
 import android.util.Log
 import android.util.TypedValue
@@ -26,6 +31,9 @@ import com.facebook.react.uimanager.UIManagerHelper
 import com.facebook.react.views.text.ReactTypefaceUtils.applyStyles
 import com.facebook.react.views.text.ReactTypefaceUtils.parseFontStyle
 import com.facebook.react.views.text.ReactTypefaceUtils.parseFontWeight
+import com.swmansion.enriched.events.ChangeDeltaEmitter
+import com.swmansion.enriched.events.ChangeTextEmitter
+import com.swmansion.enriched.events.ChangeEventScheduler
 import com.swmansion.enriched.events.MentionHandler
 import com.swmansion.enriched.events.OnInputBlurEvent
 import com.swmansion.enriched.events.OnInputFocusEvent
@@ -41,12 +49,17 @@ import com.swmansion.enriched.styles.InlineStyles
 import com.swmansion.enriched.styles.ListStyles
 import com.swmansion.enriched.styles.ParagraphStyles
 import com.swmansion.enriched.styles.ParametrizedStyles
+import com.swmansion.enriched.utils.EnrichedExecutors
+import com.swmansion.enriched.utils.EnrichedParagraphIndex
 import com.swmansion.enriched.utils.EnrichedParser
 import com.swmansion.enriched.utils.EnrichedSelection
+import com.swmansion.enriched.utils.EnrichedSnapshotCodec
 import com.swmansion.enriched.utils.EnrichedSpanState
 import com.swmansion.enriched.utils.mergeSpannables
+import com.swmansion.enriched.utils.removeZeroWidthSpaces
 import com.swmansion.enriched.watchers.EnrichedSpanWatcher
 import com.swmansion.enriched.watchers.EnrichedTextWatcher
+import java.io.IOException
 import kotlin.math.ceil
 
 class EnrichedTextInputView : AppCompatEditText {
@@ -58,10 +71,23 @@ class EnrichedTextInputView : AppCompatEditText {
   val listStyles: ListStyles? = ListStyles(this)
   val parametrizedStyles: ParametrizedStyles? = ParametrizedStyles(this)
   var isDuringTransaction: Boolean = false
+  val isDuringEdit: Boolean
+    get() = editDepth > 0
+  private var editDepth = 0
+
+  // Both are read by EnrichedTextInputModule from the JS thread
+  @Volatile var documentRevision: Long = 0
+    private set
+
+  @Volatile private var cachedHtml: CachedHtml? = null
   var isRemovingMany: Boolean = false
   var scrollEnabled: Boolean = true
 
   val mentionHandler: MentionHandler? = MentionHandler(this)
+  val deltaEmitter: ChangeDeltaEmitter = ChangeDeltaEmitter(this)
+  val textEmitter: ChangeTextEmitter = ChangeTextEmitter(this)
+  val changeEventScheduler: ChangeEventScheduler = ChangeEventScheduler(this)
+  val paragraphIndex: EnrichedParagraphIndex = EnrichedParagraphIndex(this)
   var htmlStyle: HtmlStyle = HtmlStyle(this, null)
     set(value) {
       if (field != value) {
@@ -74,7 +100,16 @@ class EnrichedTextInputView : AppCompatEditText {
   var layoutManager: EnrichedTextInputViewLayoutManager = EnrichedTextInputViewLayoutManager(this)
 
   var shouldEmitHtml: Boolean = true
+  var shouldEmitDocument: Boolean = false
   var experimentalSynchronousEvents: Boolean = false
+  @Volatile var htmlOutputOption: Int = EnrichedParser.TO_HTML_NUMERIC_ENTITIES
+    set(value) {
+      if (field != value) {
+        field = value
+        // Cached paragraphs were serialized with the previous option
+        spanWatcher?.htmlCache?.clear()
+      }
+    }
 
   var fontSize: Float? = null
   private var autoFocus = false
@@ -87,6 +122,11 @@ class EnrichedTextInputView : AppCompatEditText {
   private var defaultValue: CharSequence? = null
   private var defaultValueDirty: Boolean = false
 
+  // Bumped whenever the value is replaced synchronously, results of older background parses are dropped then
+  private var valueGeneration = 0
+  private var pendingParses = 0
+  private val afterPendingParses = ArrayList<() -> Unit>()
+
   private var inputMethodManager: InputMethodManager? = null
 
   constructor(context: Context) : super(context) {
@@ -185,6 +225,7 @@ class EnrichedTextInputView : AppCompatEditText {
     if (focused) {
       dispatcher?.dispatchEvent(OnInputFocusEvent(surfaceId, id, experimentalSynchronousEvents))
     } else {
+      changeEventScheduler.flush()
       dispatcher?.dispatchEvent(OnInputBlurEvent(surfaceId, id, experimentalSynchronousEvents))
     }
   }
@@ -226,22 +267,44 @@ class EnrichedTextInputView : AppCompatEditText {
     val clip = clipboard.primaryClip
     val item = clip?.getItemAt(0)
     val htmlText = item?.htmlText
-    val currentText = text as Spannable
-    val start = selection?.start ?: 0
-    val end = selection?.end ?: 0
-
-    if (htmlText != null) {
-      val parsedText = parseText(htmlText)
-      if (parsedText is Spannable) {
-        val finalText = currentText.mergeSpannables(start, end, parsedText)
-        setValue(finalText)
-        return
+    val plainText = item?.text
+
+    if (htmlText != null && htmlText.length >= ASYNC_PARSE_THRESHOLD) {
+      // The user may keep editing while the content is parsed. The pasted range is marked with a span that follows
+      // these edits, so that the content is inserted where it was pasted, not at the selection at the time
+      val currentText = text as Spannable
+      val target = NoCopySpan.Concrete()
+      currentText.setSpan(target, selection?.start ?: 0, selection?.end ?: 0, Spanned.SPAN_INCLUSIVE_EXCLUSIVE)
+
+      parseTextInBackground(htmlText) { parsedText ->
+        val start = currentText.getSpanStart(target)
+        val end = currentText.getSpanEnd(target)
+        currentText.removeSpan(target)
+        if (start >= 0) pasteText(parsedText, plainText, start, end)
       }
+      return
+    }
+
+    pasteText(htmlText?.let { parseText(it) }, plainText)
+  }
+
+  private fun pasteText(
+    parsedHtml: CharSequence?,
+    plainText: CharSequence?,
+    start: Int = selection?.start ?: 0,
+    end: Int = selection?.end ?: 0,
+  ) {
+    val currentText = text as Spannable
+
+    if (parsedHtml is Spannable) {
+      val finalText = currentText.mergeSpannables(start, end, parsedHtml, paragraphIndex)
+      setValue(finalText)
+      return
     }
 
     // Currently, we do not support pasting images
-    if (item?.text == null) return
-    val finalText = currentText.mergeSpannables(start, end, item.text.toString())
+    if (plainText == null) return
+    val finalText = currentText.mergeSpannables(start, end, plainText.toString(), paragraphIndex)
     setValue(finalText)
     parametrizedStyles?.detectAllLinks()
   }
@@ -252,12 +315,16 @@ class EnrichedTextInputView : AppCompatEditText {
     setSelection(selection?.start ?: text?.length ?: 0)
   }
 
-  private fun parseText(text: CharSequence): CharSequence {
-    val isHtml = text.startsWith("<html>") && text.endsWith("</html>")
-    if (!isHtml) return text
+  private fun isHtml(text: CharSequence): Boolean = text.startsWith("<html>") && text.endsWith("</html>")
+
+  private fun parseText(
+    text: CharSequence,
+    style: HtmlStyle = htmlStyle,
+  ): CharSequence {
+    if (!isHtml(text)) return text
 
     try {
-      val parsed = EnrichedParser.fromHtml(text.toString(), htmlStyle, null)
+      val parsed = EnrichedParser.fromHtml(text.toString(), style, null, PARALLEL_PARSE_THRESHOLD)
       val withoutLastNewLine = parsed.trimEnd('\n')
       return withoutLastNewLine
     } catch (e: Exception) {
@@ -266,12 +333,54 @@ class EnrichedTextInputView : AppCompatEditText {
     }
   }
 
+  // Parses the text on a background thread, results are delivered on the main thread in the order of calls
+  private fun parseTextInBackground(
+    text: CharSequence,
+    onParsed: (CharSequence) -> Unit,
+  ) {
+    val generation = valueGeneration
+    val style = htmlStyle
+    pendingParses++
+    // Cached HTML must not be returned until the parsed value is applied
+    bumpDocumentRevision()
+
+    EnrichedExecutors.background.execute {
+      val parsed = parseText(text, style)
+
+      EnrichedExecutors.mainHandler.post {
+        pendingParses--
+        if (generation == valueGeneration) {
+          onParsed(parsed)
+          // Spans were created with the style that was set when parsing started
+          if (htmlStyle != style) reApplyHtmlStyleForSpans(style, htmlStyle)
+        }
+
+        if (pendingParses == 0) {
+          val callbacks = ArrayList(afterPendingParses)
+          afterPendingParses.clear()
+          callbacks.forEach { it() }
+        }
+      }
+    }
+  }
+
   fun setValue(value: CharSequence?) {
     if (value == null) return
 
+    // Large documents are parsed in the background, so that they don't block the UI
+    if (value.length >= ASYNC_PARSE_THRESHOLD && isHtml(value)) {
+      parseTextInBackground(value) { parsed -> applyValue(parsed) }
+      return
+    }
+
+    valueGeneration++
+    applyValue(parseText(value))
+  }
+
+  private fun applyValue(newText: CharSequence) {
     runAsATransaction {
-      val newText = parseText(value)
       setText(newText)
+      deltaEmitter.reset()
 
       observeAsyncImages()
       // Assign SpanWatcher one more time as our previous spannable has been replaced
@@ -282,35 +391,24 @@ class EnrichedTextInputView : AppCompatEditText {
     }
   }
 
+  // Binary alternative to HTML for persisting the document, see EnrichedSnapshotCodec
+  fun exportSnapshot(): ByteArray = EnrichedSnapshotCodec.encode(text ?: SpannableStringBuilder())
+
+  fun importSnapshot(snapshot: ByteArray) {
+    val newText = EnrichedSnapshotCodec.decode(snapshot, htmlStyle)
+    valueGeneration++
+    applyValue(newText)
+  }
+
   fun setCustomSelection(
     visibleStart: Int,
     visibleEnd: Int,
   ) {
-    val actualStart = getActualIndex(visibleStart)
-    val actualEnd = getActualIndex(visibleEnd)
-
-    setSelection(actualStart, actualEnd)
-  }
-
-  // Helper: Walks through the string skipping ZWSPs to find the Nth visible character
-  private fun getActualIndex(visibleIndex: Int): Int {
     val currentText = text as Spannable
-    var currentVisibleCount = 0
-    var actualIndex = 0
+    val actualStart = paragraphIndex.getActualOffset(currentText, visibleStart)
+    val actualEnd = paragraphIndex.getActualOffset(currentText, visibleEnd)
 
-    while (actualIndex < currentText.length) {
-      if (currentVisibleCount == visibleIndex) {
-        return actualIndex
-      }
-
-      // If the current char is not a hidden space, it counts towards our visible index
-      if (currentText[actualIndex] != '\u200B') {
-        currentVisibleCount++
-      }
-      actualIndex++
-    }
-
-    return actualIndex
+    setSelection(actualStart, actualEnd)
   }
 
   /**
@@ -451,7 +549,17 @@ class EnrichedTextInputView : AppCompatEditText {
     if (!defaultValueDirty) return
 
     defaultValueDirty = false
-    setValue(defaultValue ?: "")
+    val value = defaultValue ?: ""
+
+    // The same value was most likely parsed already when the view was first measured
+    val parsed = EnrichedTextInputMeasurer.getParsedValue(value.toString(), htmlStyle)
+    if (parsed != null) {
+      valueGeneration++
+      applyValue(parsed)
+      return
+    }
+
+    setValue(value)
   }
 
   private fun updateTypeface() {
@@ -602,7 +710,11 @@ class EnrichedTextInputView : AppCompatEditText {
     val isValid = verifyStyle(EnrichedSpans.LINK)
     if (!isValid) return
 
-    parametrizedStyles?.setLinkSpan(start, end, text, url)
+    // Offsets come from JS, which doesn't see zero-width spaces
+    val currentText = this.text as Spannable
+    val actualStart = paragraphIndex.getActualOffset(currentText, start)
+    val actualEnd = paragraphIndex.getActualOffset(currentText, end)
+    parametrizedStyles?.setLinkSpan(actualStart, actualEnd, text, url)
   }
 
   fun addImage(
@@ -636,13 +748,102 @@ class EnrichedTextInputView : AppCompatEditText {
   }
 
   fun requestHTML(requestId: Int) {
-    val html =
-      try {
-        EnrichedParser.toHtmlWithDefault(text)
-      } catch (e: Exception) {
-        null
-      }
+    // Wait for the value that is being parsed, so that the result reflects the latest setValue call
+    if (pendingParses > 0) {
+      afterPendingParses.add { requestHTML(requestId) }
+      return
+    }
 
+    changeEventScheduler.flush()
+
+    val cachedHtml = getCachedHtml(htmlOutputOption)
+    if (cachedHtml != null) {
+      dispatchHtmlResult(requestId, cachedHtml)
+      return
+    }
+
+    val currentText = text
+    val watcher = spanWatcher
+    val option = htmlOutputOption
+    if (currentText != null && watcher != null) {
+      watcher.serializeHtml(currentText, option) { html -> dispatchHtmlResult(requestId, html) }
+      return
+    }
+
+    val revision = documentRevision
+    val html = serializeHtml(currentText, option)
+    if (html != null && currentText != null) cacheHtml(revision, option, html)
+    dispatchHtmlResult(requestId, html)
+  }
+
+  // Every text and span change bumps the revision, which invalidates the cached HTML
+  fun bumpDocumentRevision() {
+    documentRevision++
+  }
+
+  // Safe to call from any thread
+  fun getCachedHtml(
+    option: Int,
+    maxTextLength: Int = Int.MAX_VALUE,
+  ): String? {
+    val cached = cachedHtml ?: return null
+    if (cached.revision != documentRevision || cached.option != option || cached.textLength > maxTextLength) return null
+
+    return cached.html
+  }
+
+  fun cacheHtml(
+    revision: Long,
+    option: Int,
+    html: String,
+  ) {
+    // Results computed in the background may already be outdated
+    if (revision != documentRevision) return
+
+    cachedHtml = CachedHtml(revision, option, text?.length ?: 0, html)
+  }
+
+  // Used for synchronous reads from JS, returns null if the value is being parsed, the text is longer than maxTextLength
+  // or too much of it changed since the last serialization, so that the read stays within the UI thread timeout
+  fun getHtmlIfShorterThan(maxTextLength: Int): String? {
+    val currentText = text ?: return null
+    if (pendingParses > 0 || currentText.length > maxTextLength) return null
+
+    changeEventScheduler.flush()
+    val option = htmlOutputOption
+    val cached = getCachedHtml(option)
+    if (cached != null) return cached
+
+    val watcher = spanWatcher
+    if (watcher != null) return watcher.serializeHtmlIfIncremental(currentText, option)
+
+    val revision = documentRevision
+    val html = serializeHtml(currentText, option) ?: return null
+    cacheHtml(revision, option, html)
+    return html
+  }
+
+  fun getTextIfShorterThan(maxTextLength: Int): String? {
+    val currentText = text ?: return null
+    if (pendingParses > 0 || currentText.length > maxTextLength) return null
+
+    return currentText.removeZeroWidthSpaces()
+  }
+
+  private fun serializeHtml(
+    text: CharSequence?,
+    option: Int,
+  ): String? =
+    try {
+      EnrichedParser.toHtmlWithDefault(text, option)
+    } catch (e: Exception) {
+      null
+    }
+
+  private fun dispatchHtmlResult(
+    requestId: Int,
+    html: String?,
+  ) {
     val reactContext = context as ReactContext
     val surfaceId = UIManagerHelper.getSurfaceId(reactContext)
     val dispatcher = UIManagerHelper.getEventDispatcherForReactTag(reactContext, id)
@@ -654,13 +855,28 @@ class EnrichedTextInputView : AppCompatEditText {
   // In such scenario we want to prevent from handling side effects (eg. onTextChanged)
   fun runAsATransaction(block: () -> Unit) {
     try {
+      beginEdit()
       isDuringTransaction = true
       block()
     } finally {
       isDuringTransaction = false
+      endEdit()
     }
   }
 
+  // A single edit (eg. typing a character) may add and remove many spans while styles are re-applied
+  // Change events are only marked as pending during an edit and emitted once the outermost edit ends
+  fun beginEdit() {
+    editDepth++
+  }
+
+  fun endEdit() {
+    if (editDepth == 0) return
+
+    editDepth--
+    if (editDepth == 0) changeEventScheduler.onEditEnded()
+  }
+
   private fun forceScrollToSelection() {
     val textLayout = layout ?: return
     val cursorOffset = selectionStart
@@ -732,6 +948,49 @@ class EnrichedTextInputView : AppCompatEditText {
     forceScrollToSelection()
   }
 
+  override fun onSaveInstanceState(): Parcelable? {
+    val superState = super.onSaveInstanceState()
+    val currentText = text ?: return superState
+
+    // Saved state shares the binder transaction limit (1 MB) with the rest of the activity, a larger document
+    // is restored from the text saved by TextView alone and JS is expected to persist it on its own
+    val snapshot = EnrichedSnapshotCodec.encode(currentText)
+    if (snapshot.size > MAX_SAVED_SNAPSHOT_SIZE) return superState
+
+    return Bundle().apply {
+      putParcelable(SUPER_STATE_KEY, superState)
+      putByteArray(SNAPSHOT_KEY, snapshot)
+      putInt(SELECTION_START_KEY, selectionStart)
+      putInt(SELECTION_END_KEY, selectionEnd)
+    }
+  }
+
+  override fun onRestoreInstanceState(state: Parcelable?) {
+    if (state !is Bundle) {
+      super.onRestoreInstanceState(state)
+      return
+    }
+
+    @Suppress("DEPRECATION")
+    super.onRestoreInstanceState(state.getParcelable(SUPER_STATE_KEY))
+    val snapshot = state.getByteArray(SNAPSHOT_KEY) ?: return
+
+    try {
+      importSnapshot(snapshot)
+    } catch (e: IOException) {
+      Log.e("EnrichedTextInputView", "Error restoring snapshot: ${e.message}")
+      return
+    } catch (e: RuntimeException) {
+      Log.e("EnrichedTextInputView", "Error applying restored snapshot: ${e.message}")
+      return
+    }
+
+    val length = text?.length ?: 0
+    val start = state.getInt(SELECTION_START_KEY).coerceIn(0, length)
+    val end = state.getInt(SELECTION_END_KEY).coerceIn(start, length)
+    setSelection(start, end)
+  }
+
   override fun onAttachedToWindow() {
     super.onAttachedToWindow()
 
@@ -742,7 +1001,29 @@ class EnrichedTextInputView : AppCompatEditText {
     didAttachToWindow = true
   }
 
+  private class CachedHtml(
+    val revision: Long,
+    val option: Int,
+    val textLength: Int,
+    val html: String,
+  )
+
   companion object {
     const val CLIPBOARD_TAG = "react-native-enriched-clipboard"
+
+    private const val SUPER_STATE_KEY = "superState"
+    private const val SNAPSHOT_KEY = "snapshot"
+    private const val MAX_SAVED_SNAPSHOT_SIZE = 128 * 1024
+    private const val SELECTION_START_KEY = "selectionStart"
+    private const val SELECTION_END_KEY = "selectionEnd"
+
+    // Length of HTML above which setValue and paste parse it off the main thread
+    const val ASYNC_PARSE_THRESHOLD = 64 * 1024
+
+    // Length of HTML above which it is split and parsed on multiple threads, always parsed off the main thread
+    const val PARALLEL_PARSE_THRESHOLD = 256 * 1024
+
+    // Number of changed characters above which HTML is serialized off the main thread, from a snapshot of the document
+    const val ASYNC_SERIALIZATION_THRESHOLD = 64 * 1024
   }
 }
@@ -1,17 +1,41 @@
 package com.swmansion.enriched
 
+import android.view.Choreographer
 import com.facebook.react.bridge.Arguments
 
 class EnrichedTextInputViewLayoutManager(
   private val view: EnrichedTextInputView,
 ) {
   private var forceHeightRecalculationCounter: Int = 0
+  private var isUpdateScheduled = false
 
+  // Number of invalidations merged into an already scheduled update
+  var coalescedInvalidationsCount: Long = 0
+    private set
+
+  private val frameCallback =
+    Choreographer.FrameCallback {
+      isUpdateScheduled = false
+      updateMeasurement()
+    }
+
+  // A single edit may invalidate the layout several times (eg. text change, then styles and images)
+  // Measurement and the state update causing Yoga relayout are done at most once per frame
   fun invalidateLayout() {
+    if (isUpdateScheduled) {
+      coalescedInvalidationsCount++
+      return
+    }
+
+    isUpdateScheduled = true
+    Choreographer.getInstance().postFrameCallback(frameCallback)
+  }
+
+  private fun updateMeasurement() {
     val text = view.text
     val paint = view.paint
 
-    val needUpdate = MeasurementStore.store(view.id, text, paint)
+    val needUpdate = MeasurementStore.store(view.id, text, paint, view.layout, view.documentRevision)
     if (!needUpdate) return
 
     val counter = forceHeightRecalculationCounter
@@ -22,6 +46,10 @@ class EnrichedTextInputViewLayoutManager(
   }
 
   fun releaseMeasurementStore() {
+    if (isUpdateScheduled) {
+      isUpdateScheduled = false
+      Choreographer.getInstance().removeFrameCallback(frameCallback)
+    }
     MeasurementStore.release(view.id)
   }
 }
@@ -15,9 +15,13 @@ import com.facebook.react.uimanager.annotations.ReactProp
 import com.facebook.react.viewmanagers.EnrichedTextInputViewManagerDelegate
 import com.facebook.react.viewmanagers.EnrichedTextInputViewManagerInterface
 import com.facebook.yoga.YogaMeasureMode
+import com.swmansion.enriched.events.ChangeEventScheduler
+import com.swmansion.enriched.events.OnChangeDeltaEvent
+import com.swmansion.enriched.events.OnChangeDocumentEvent
 import com.swmansion.enriched.events.OnChangeHtmlEvent
 import com.swmansion.enriched.events.OnChangeSelectionEvent
 import com.swmansion.enriched.events.OnChangeStateEvent
+import com.swmansion.enriched.events.OnChangeTextDeltaEvent
 import com.swmansion.enriched.events.OnChangeTextEvent
 import com.swmansion.enriched.events.OnInputBlurEvent
 import com.swmansion.enriched.events.OnInputFocusEvent
@@ -27,6 +31,7 @@ import com.swmansion.enriched.events.OnMentionEvent
 import com.swmansion.enriched.events.OnRequestHtmlResultEvent
 import com.swmansion.enriched.spans.EnrichedSpans
 import com.swmansion.enriched.styles.HtmlStyle
+import com.swmansion.enriched.utils.EnrichedParser
 import com.swmansion.enriched.utils.jsonStringToStringMap
 
 @ReactModule(name = EnrichedTextInputViewManager.NAME)
@@ -42,7 +47,17 @@ class EnrichedTextInputViewManager :
 
   public override fun createViewInstance(context: ThemedReactContext): EnrichedTextInputView = EnrichedTextInputView(context)
 
+  override fun addEventEmitters(
+    reactContext: ThemedReactContext,
+    view: EnrichedTextInputView,
+  ) {
+    super.addEventEmitters(reactContext, view)
+    EnrichedTextInputModule.registerView(view)
+  }
+
   override fun onDropViewInstance(view: EnrichedTextInputView) {
+    view.changeEventScheduler.flush()
+    EnrichedTextInputModule.unregisterView(view)
     super.onDropViewInstance(view)
     view.layoutManager.releaseMeasurementStore()
   }
@@ -61,7 +76,10 @@ class EnrichedTextInputViewManager :
     map.put(OnInputFocusEvent.EVENT_NAME, mapOf("registrationName" to OnInputFocusEvent.EVENT_NAME))
     map.put(OnInputBlurEvent.EVENT_NAME, mapOf("registrationName" to OnInputBlurEvent.EVENT_NAME))
     map.put(OnChangeTextEvent.EVENT_NAME, mapOf("registrationName" to OnChangeTextEvent.EVENT_NAME))
+    map.put(OnChangeTextDeltaEvent.EVENT_NAME, mapOf("registrationName" to OnChangeTextDeltaEvent.EVENT_NAME))
     map.put(OnChangeHtmlEvent.EVENT_NAME, mapOf("registrationName" to OnChangeHtmlEvent.EVENT_NAME))
+    map.put(OnChangeDocumentEvent.EVENT_NAME, mapOf("registrationName" to OnChangeDocumentEvent.EVENT_NAME))
+    map.put(OnChangeDeltaEvent.EVENT_NAME, mapOf("registrationName" to OnChangeDeltaEvent.EVENT_NAME))
     map.put(OnChangeStateEvent.EVENT_NAME, mapOf("registrationName" to OnChangeStateEvent.EVENT_NAME))
     map.put(OnLinkDetectedEvent.EVENT_NAME, mapOf("registrationName" to OnLinkDetectedEvent.EVENT_NAME))
     map.put(OnMentionDetectedEvent.EVENT_NAME, mapOf("registrationName" to OnMentionDetectedEvent.EVENT_NAME))
@@ -225,6 +243,41 @@ class EnrichedTextInputViewManager :
     view?.shouldEmitHtml = value
   }
 
+  override fun setIsOnChangeDocumentSet(
+    view: EnrichedTextInputView?,
+    value: Boolean,
+  ) {
+    view?.shouldEmitDocument = value
+  }
+
+  override fun setAndroidHtmlEmission(
+    view: EnrichedTextInputView?,
+    value: String?,
+  ) {
+    view?.changeEventScheduler?.policy = ChangeEventScheduler.policyFromString(value)
+  }
+
+  override fun setAndroidHtmlEmissionDelay(
+    view: EnrichedTextInputView?,
+    value: Int,
+  ) {
+    view?.changeEventScheduler?.debounceDelay = value.toLong()
+  }
+
+  override fun setAndroidTextEmission(
+    view: EnrichedTextInputView?,
+    value: String?,
+  ) {
+    view?.textEmitter?.isIncremental = value == "incremental"
+  }
+
+  override fun setIsOnChangeDeltaSet(
+    view: EnrichedTextInputView?,
+    value: Boolean,
+  ) {
+    view?.deltaEmitter?.isEnabled = value
+  }
+
   override fun setAutoCapitalize(
     view: EnrichedTextInputView?,
     flag: String?,
@@ -239,6 +292,14 @@ class EnrichedTextInputViewManager :
     view?.experimentalSynchronousEvents = value
   }
 
+  override fun setAndroidRawUnicodeHtml(
+    view: EnrichedTextInputView?,
+    value: Boolean,
+  ) {
+    view?.htmlOutputOption =
+      if (value) EnrichedParser.TO_HTML_RAW_UNICODE else EnrichedParser.TO_HTML_NUMERIC_ENTITIES
+  }
+
   override fun focus(view: EnrichedTextInputView?) {
     view?.requestFocusProgrammatically()
   }
@@ -1,13 +1,15 @@
 package com.swmansion.enriched
 
-import com.facebook.react.ReactPackage
+import com.facebook.react.BaseReactPackage
 import com.facebook.react.bridge.NativeModule
 import com.facebook.react.bridge.ReactApplicationContext
+import com.facebook.react.module.model.ReactModuleInfo
+import com.facebook.react.module.model.ReactModuleInfoProvider
 import com.facebook.react.uimanager.ViewManager
 import com.swmansion.enriched.utils.ResourceManager
 import java.util.ArrayList
 
-class EnrichedTextInputViewPackage : ReactPackage {
+class EnrichedTextInputViewPackage : BaseReactPackage() {
   override fun createViewManagers(reactContext: ReactApplicationContext): List<ViewManager<*, *>> {
     ResourceManager.init(reactContext.applicationContext)
     val viewManagers: MutableList<ViewManager<*, *>> = ArrayList()
@@ -15,5 +17,27 @@ class EnrichedTextInputViewPackage : ReactPackage {
     return viewManagers
   }
 
-  override fun createNativeModules(reactContext: ReactApplicationContext): List<NativeModule> = emptyList()
+  override fun getModule(
+    name: String,
+    reactContext: ReactApplicationContext,
+  ): NativeModule? =
+    when (name) {
+      EnrichedTextInputModule.NAME -> EnrichedTextInputModule(reactContext)
+      else -> null
+    }
+
+  override fun getReactModuleInfoProvider(): ReactModuleInfoProvider =
+    ReactModuleInfoProvider {
+      mapOf(
+        EnrichedTextInputModule.NAME to
+          ReactModuleInfo(
+            EnrichedTextInputModule.NAME,
+            EnrichedTextInputModule::class.java.name,
+            false, // canOverrideExistingModule
+            false, // needsEagerInit
+            false, // isCxxModule
+            true, // isTurboModule
+          ),
+      )
+    }
 }
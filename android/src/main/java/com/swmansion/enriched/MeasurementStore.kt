@@ -4,20 +4,15 @@ import android.content.Context
 import android.graphics.Typeface
 import android.graphics.text.LineBreaker
 import android.os.Build
+import android.text.Layout
 import android.text.Spannable
 import android.text.StaticLayout
 import android.text.TextPaint
-import android.util.Log
 import com.facebook.react.bridge.ReadableMap
 import com.facebook.react.uimanager.PixelUtil
-import com.facebook.react.views.text.ReactTypefaceUtils.applyStyles
-import com.facebook.react.views.text.ReactTypefaceUtils.parseFontStyle
-import com.facebook.react.views.text.ReactTypefaceUtils.parseFontWeight
 import com.facebook.yoga.YogaMeasureOutput
-import com.swmansion.enriched.styles.HtmlStyle
-import com.swmansion.enriched.utils.EnrichedParser
 import java.util.concurrent.ConcurrentHashMap
-import kotlin.math.ceil
+import java.util.concurrent.atomic.AtomicLong
 
 object MeasurementStore {
   data class PaintParams(
@@ -25,36 +20,93 @@ object MeasurementStore {
     val fontSize: Float,
   )
 
+  // Sizes measured at different widths, least recently used are dropped first
+  class SizeCache : LinkedHashMap<Float, Long>(SIZE_CACHE_CAPACITY, 0.75f, true) {
+    override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Float, Long>?): Boolean = size > SIZE_CACHE_CAPACITY
+  }
+
   data class MeasurementParams(
     val initialized: Boolean,
     val cachedWidth: Float,
     val cachedSize: Long,
     val spannable: CharSequence?,
     val paintParams: PaintParams,
+    val revision: Long,
+    val sizes: SizeCache,
   )
 
+  // Measurements of a view answered from its own size cache, and the ones that required a layout pass
+  class CacheStats {
+    val hits = AtomicLong()
+    val misses = AtomicLong()
+  }
+
+  private const val SIZE_CACHE_CAPACITY = 4
+
+  // Revision of measurements done before the view stored its own, see EnrichedTextInputView.documentRevision
+  private const val INITIAL_REVISION = -1L
+
   private val data = ConcurrentHashMap<Int, MeasurementParams>()
 
+  // Kept apart from the params, so that counting a measurement never overwrites what the UI thread stored
+  private val cacheStats = ConcurrentHashMap<Int, CacheStats>()
+
+  // Initial measurements answered from the sizes shared between inputs, and the ones that required a layout pass
+  val sharedCacheHits = AtomicLong()
+  val sharedCacheMisses = AtomicLong()
+
   fun store(
     id: Int,
     spannable: Spannable?,
     paint: TextPaint,
+    layout: Layout?,
+    revision: Long,
   ): Boolean {
-    val cachedWidth = data[id]?.cachedWidth ?: 0f
-    val cachedSize = data[id]?.cachedSize ?: 0L
-    val initialized = data[id]?.initialized ?: true
-
-    val size = measure(cachedWidth, spannable, paint)
+    val previous = data[id]
+    val cachedWidth = previous?.cachedWidth ?: 0f
+    val cachedSize = previous?.cachedSize ?: 0L
+    val initialized = previous?.initialized ?: true
+
+    // The view's own layout is updated incrementally, so it's much cheaper than laying out the whole text again
+    // A new StaticLayout is only needed when Yoga measures the view with a different width
+    val size =
+      if (layout != null && layout.width == cachedWidth.toInt()) {
+        makeSize(cachedWidth, layout.height)
+      } else {
+        measure(cachedWidth, spannable, paint)
+      }
     val paintParams = PaintParams(paint.typeface, paint.textSize)
 
-    data[id] = MeasurementParams(initialized, cachedWidth, size, spannable, paintParams)
+    // Sizes measured at other widths are only valid for the same document and paint
+    val sizes =
+      if (previous != null && previous.revision == revision && previous.paintParams == paintParams) {
+        previous.sizes
+      } else {
+        SizeCache()
+      }
+    synchronized(sizes) { sizes[cachedWidth] = size }
+
+    data[id] =
+      MeasurementParams(
+        initialized,
+        cachedWidth,
+        size,
+        spannable,
+        paintParams,
+        revision,
+        sizes,
+      )
     return cachedSize != size
   }
 
   fun release(id: Int) {
     data.remove(id)
+    cacheStats.remove(id)
   }
 
+  // Returns cache hits and misses of the given view, or null if it wasn't measured yet
+  fun getCacheStats(id: Int): Pair<Long, Long>? = cacheStats[id]?.let { Pair(it.hits.get(), it.misses.get()) }
+
   private fun measure(
     maxWidth: Float,
     spannable: CharSequence?,
@@ -91,42 +143,16 @@ object MeasurementStore {
     }
 
     val staticLayout = builder.build()
-    val heightInSP = PixelUtil.toDIPFromPixel(staticLayout.height.toFloat())
-    val widthInSP = PixelUtil.toDIPFromPixel(maxWidth)
-    return YogaMeasureOutput.make(widthInSP, heightInSP)
-  }
-
-  // Returns either: Spannable parsed from HTML defaultValue, or plain text defaultValue, or "I" if no defaultValue
-  private fun getInitialText(
-    defaultView: EnrichedTextInputView,
-    props: ReadableMap?,
-  ): CharSequence {
-    val defaultValue = props?.getString("defaultValue")
-
-    // If there is no default value, assume text is one line, "I" is a good approximation of height
-    if (defaultValue == null) return "I"
-
-    val isHtml = defaultValue.startsWith("<html>") && defaultValue.endsWith("</html>")
-    if (!isHtml) return defaultValue
-
-    try {
-      val htmlStyle = HtmlStyle(defaultView, props.getMap("htmlStyle"))
-      val parsed = EnrichedParser.fromHtml(defaultValue, htmlStyle, null)
-      return parsed.trimEnd('\n')
-    } catch (e: Exception) {
-      Log.w("MeasurementStore", "Error parsing initial HTML text: ${e.message}")
-      return defaultValue
-    }
+    return makeSize(maxWidth, staticLayout.height)
   }
 
-  private fun getInitialFontSize(
-    defaultView: EnrichedTextInputView,
-    props: ReadableMap?,
-  ): Float {
-    val propsFontSize = props?.getDouble("fontSize")?.toFloat()
-    if (propsFontSize == null) return defaultView.textSize
-
-    return ceil(PixelUtil.toPixelFromSP(propsFontSize))
+  private fun makeSize(
+    width: Float,
+    height: Int,
+  ): Long {
+    val heightInSP = PixelUtil.toDIPFromPixel(height.toFloat())
+    val widthInSP = PixelUtil.toDIPFromPixel(width)
+    return YogaMeasureOutput.make(widthInSP, heightInSP)
   }
 
   // Called when view measurements are not available in the store
@@ -137,21 +163,35 @@ object MeasurementStore {
     width: Float,
     props: ReadableMap?,
   ): Long {
-    val defaultView = EnrichedTextInputView(context)
-
-    val text = getInitialText(defaultView, props)
-    val fontSize = getInitialFontSize(defaultView, props)
-
-    val fontFamily = props?.getString("fontFamily")
-    val fontStyle = parseFontStyle(props?.getString("fontStyle"))
-    val fontWeight = parseFontWeight(props?.getString("fontWeight"))
-
-    val typeface = applyStyles(defaultView.typeface, fontStyle, fontWeight, fontFamily, context.assets)
-    val paintParams = PaintParams(typeface, fontSize)
-    val size = measure(width, text, PaintParams(typeface, fontSize))
+    val text = EnrichedTextInputMeasurer.getInitialText(context, props)
+    val paintParams = EnrichedTextInputMeasurer.getPaintParams(context, props)
+
+    // Another input with the same content may have been measured already
+    val cachedSize = EnrichedTextInputMeasurer.getCachedSize(context, props, paintParams, width)
+    val size =
+      if (cachedSize != null) {
+        sharedCacheHits.incrementAndGet()
+        cachedSize
+      } else {
+        sharedCacheMisses.incrementAndGet()
+        measure(width, text, paintParams).also {
+          EnrichedTextInputMeasurer.cacheSize(context, props, paintParams, width, it)
+        }
+      }
 
     if (id != null) {
-      data[id] = MeasurementParams(true, width, size, text, paintParams)
+      val sizes = SizeCache()
+      sizes[width] = size
+      data[id] =
+        MeasurementParams(
+          true,
+          width,
+          size,
+          text,
+          paintParams,
+          INITIAL_REVISION,
+          sizes,
+        )
     }
 
     return size
@@ -170,10 +210,20 @@ object MeasurementStore {
     // That way it's free of any side effects and async initializations
     if (!value.initialized) return initialMeasure(context, id, width, props)
 
+    val stats = cacheStats.getOrPut(id) { CacheStats() }
     if (width == value.cachedWidth) {
+      stats.hits.incrementAndGet()
       return value.cachedSize
     }
 
+    val cachedSize = synchronized(value.sizes) { value.sizes[width] }
+    if (cachedSize != null) {
+      stats.hits.incrementAndGet()
+      // Params stored by the UI thread in the meantime take precedence
+      data.replace(id, value, value.copy(cachedWidth = width, cachedSize = cachedSize))
+      return cachedSize
+    }
+
     val paint =
       TextPaint().apply {
         typeface = value.paintParams.typeface
@@ -181,7 +231,9 @@ object MeasurementStore {
       }
 
     val size = measure(width, value.spannable, paint)
-    data[id] = MeasurementParams(true, width, size, value.spannable, value.paintParams)
+    synchronized(value.sizes) { value.sizes[width] = size }
+    stats.misses.incrementAndGet()
+    data.replace(id, value, value.copy(cachedWidth = width, cachedSize = size))
     return size
   }
 }
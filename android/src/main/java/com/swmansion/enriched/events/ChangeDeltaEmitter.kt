@@ -0,0 +1,182 @@
+package com.swmansion.enriched.events
+
+import android.text.Spanned
+import com.facebook.react.bridge.ReactContext
+import com.facebook.react.uimanager.UIManagerHelper
+import com.swmansion.enriched.EnrichedTextInputView
+import com.swmansion.enriched.spans.interfaces.EnrichedSpan
+import com.swmansion.enriched.utils.EnrichedDocument
+import com.swmansion.enriched.utils.EnrichedExecutors
+import java.util.IdentityHashMap
+
+/**
+ * Collects text and span changes as delta operations and emits them in OnChangeDeltaEvent, at most
+ * once per main loop iteration. Offsets refer to the raw text, including zero-width spaces. Spans
+ * are identified by ids, so that consumers can follow them between events. A full snapshot is sent
+ * instead of operations in the first event, after the value is replaced and periodically for resync.
+ */
+class ChangeDeltaEmitter(
+  private val view: EnrichedTextInputView,
+) {
+  class Op(
+    val op: String,
+    val count: Int = 0,
+    val text: String? = null,
+    val id: Int = 0,
+    val type: String? = null,
+    val start: Int = 0,
+    val end: Int = 0,
+    val attributes: Map<String, String>? = null,
+  )
+
+  class Snapshot(
+    val text: String,
+    val ranges: List<Op>,
+  )
+
+  private val ops = ArrayList<Op>()
+  private val spanIds = IdentityHashMap<EnrichedSpan, Int>()
+  private var nextSpanId = 1
+  private var revision = 0
+  private var needsSnapshot = true
+  private var isFlushScheduled = false
+
+  private val flushRunnable = Runnable { flush() }
+
+  var isEnabled: Boolean = false
+    set(value) {
+      if (field == value) return
+      field = value
+      reset()
+    }
+
+  // Drops collected operations, the next event carries a full snapshot
+  fun reset() {
+    ops.clear()
+    needsSnapshot = true
+    if (isEnabled) scheduleFlush()
+  }
+
+  fun onTextChanged(
+    s: CharSequence,
+    start: Int,
+    before: Int,
+    count: Int,
+  ) {
+    if (!isEnabled || needsSnapshot) return
+
+    ops.add(Op("retain", count = start))
+    if (before > 0) ops.add(Op("delete", count = before))
+    if (count > 0) ops.add(Op("insert", text = s.subSequence(start, start + count).toString()))
+    scheduleFlush()
+  }
+
+  fun onSpanAdded(
+    what: Any,
+    start: Int,
+    end: Int,
+  ) {
+    if (!isEnabled || needsSnapshot || what !is EnrichedSpan) return
+
+    val id = nextSpanId++
+    spanIds[what] = id
+    addFormatOp(what, id, start, end)
+  }
+
+  fun onSpanRemoved(what: Any) {
+    if (!isEnabled || needsSnapshot || what !is EnrichedSpan) return
+
+    val id = spanIds.remove(what) ?: return
+    ops.add(Op("removeFormat", id = id))
+    scheduleFlush()
+  }
+
+  fun onSpanChanged(
+    what: Any,
+    ostart: Int,
+    oend: Int,
+    nstart: Int,
+    nend: Int,
+  ) {
+    // Spans shifted as a whole by a text change follow the text operations and are not reported here
+    if (!isEnabled || needsSnapshot || what !is EnrichedSpan) return
+
+    val id = spanIds[what] ?: return
+    ops.add(Op("removeFormat", id = id))
+    addFormatOp(what, id, nstart, nend)
+  }
+
+  private fun addFormatOp(
+    span: EnrichedSpan,
+    id: Int,
+    start: Int,
+    end: Int,
+  ) {
+    val type = EnrichedDocument.typeOf(span) ?: return
+    ops.add(Op("addFormat", id = id, type = type, start = start, end = end, attributes = EnrichedDocument.attributesOf(span)))
+    scheduleFlush()
+  }
+
+  private fun scheduleFlush() {
+    if (isFlushScheduled) return
+
+    isFlushScheduled = true
+    EnrichedExecutors.mainHandler.post(flushRunnable)
+  }
+
+  private fun flush() {
+    isFlushScheduled = false
+    if (!isEnabled) return
+    if (!needsSnapshot && ops.isEmpty()) return
+
+    revision++
+    val snapshot = if (needsSnapshot || revision % SNAPSHOT_INTERVAL == 0) createSnapshot() else null
+    val eventOps = if (snapshot != null) emptyList() else ArrayList(ops)
+    ops.clear()
+    needsSnapshot = false
+
+    val context = view.context as ReactContext
+    val surfaceId = UIManagerHelper.getSurfaceId(context)
+    val dispatcher = UIManagerHelper.getEventDispatcherForReactTag(context, view.id)
+    dispatcher?.dispatchEvent(
+      OnChangeDeltaEvent(
+        surfaceId,
+        view.id,
+        revision,
+        eventOps,
+        snapshot,
+        view.experimentalSynchronousEvents,
+      ),
+    )
+  }
+
+  private fun createSnapshot(): Snapshot {
+    val text: Spanned = view.text ?: return Snapshot("", emptyList())
+
+    spanIds.clear()
+    val spans = text.getSpans(0, text.length, EnrichedSpan::class.java)
+    val ranges = ArrayList<Op>(spans.size)
+    for (span in spans) {
+      val type = EnrichedDocument.typeOf(span) ?: continue
+      val id = nextSpanId++
+      spanIds[span] = id
+      ranges.add(
+        Op(
+          "addFormat",
+          id = id,
+          type = type,
+          start = text.getSpanStart(span),
+          end = text.getSpanEnd(span),
+          attributes = EnrichedDocument.attributesOf(span),
+        ),
+      )
+    }
+
+    return Snapshot(text.toString(), ranges)
+  }
+
+  companion object {
+    // Every n-th event carries a full snapshot, so consumers can resync
+    const val SNAPSHOT_INTERVAL = 100
+  }
+}
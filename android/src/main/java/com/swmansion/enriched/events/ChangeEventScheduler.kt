@@ -0,0 +1,85 @@
+package com.swmansion.enriched.events
+
+import android.os.Looper
+import android.os.MessageQueue
+import com.swmansion.enriched.EnrichedTextInputView
+import com.swmansion.enriched.utils.EnrichedExecutors
+
+/**
+ * Decides when onChangeHtml and onChangeDocument are emitted. Changes made during an edit are
+ * always emitted once the outermost edit ends. Depending on the policy, that happens right away,
+ * after the input is quiet for the debounce delay, or when the main looper becomes idle.
+ */
+class ChangeEventScheduler(
+  private val view: EnrichedTextInputView,
+) {
+  var policy: Int = POLICY_IMMEDIATE
+    set(value) {
+      if (field == value) return
+      field = value
+      flush()
+    }
+  var debounceDelay: Long = DEFAULT_DEBOUNCE_DELAY
+
+  private var hasPendingEvent = false
+  private var isIdleHandlerAdded = false
+
+  private val flushRunnable = Runnable { flush() }
+  private val idleHandler =
+    MessageQueue.IdleHandler {
+      isIdleHandlerAdded = false
+      flush()
+      false
+    }
+
+  fun schedule() {
+    hasPendingEvent = true
+    if (view.isDuringEdit) return
+
+    when (policy) {
+      POLICY_DEBOUNCED -> {
+        EnrichedExecutors.mainHandler.removeCallbacks(flushRunnable)
+        EnrichedExecutors.mainHandler.postDelayed(flushRunnable, debounceDelay)
+      }
+
+      POLICY_ON_IDLE -> {
+        if (isIdleHandlerAdded) return
+        isIdleHandlerAdded = true
+        Looper.getMainLooper().queue.addIdleHandler(idleHandler)
+      }
+
+      else -> {
+        flush()
+      }
+    }
+  }
+
+  fun onEditEnded() {
+    if (hasPendingEvent) schedule()
+  }
+
+  // Emits pending changes right away, eg. before blur or when the HTML is requested
+  fun flush() {
+    EnrichedExecutors.mainHandler.removeCallbacks(flushRunnable)
+    if (!hasPendingEvent || view.isDuringEdit) return
+
+    hasPendingEvent = false
+    val text = view.text ?: return
+    view.spanWatcher?.emitChangeEvents(text)
+  }
+
+  companion object {
+    const val POLICY_IMMEDIATE = 0
+    const val POLICY_DEBOUNCED = 1
+    const val POLICY_ON_IDLE = 2
+
+    const val DEFAULT_DEBOUNCE_DELAY = 300L
+
+    fun policyFromString(value: String?): Int =
+      when (value) {
+        "debounced" -> POLICY_DEBOUNCED
+        "onIdle" -> POLICY_ON_IDLE
+        else -> POLICY_IMMEDIATE
+      }
+  }
+}
@@ -0,0 +1,93 @@
+package com.swmansion.enriched.events
+
+import android.text.Editable
+import com.facebook.react.bridge.ReactContext
+import com.facebook.react.uimanager.UIManagerHelper
+import com.swmansion.enriched.EnrichedTextInputView
+import com.swmansion.enriched.utils.removeZeroWidthSpaces
+
+/**
+ * Emits text changes to JS. In the full mode every change sends the whole plain text in OnChangeTextEvent.
+ * In the incremental mode OnChangeTextDeltaEvent only carries the replaced ranges and the inserted text,
+ * with offsets in the text without zero-width spaces, and JS applies them to its copy of the text.
+ * The whole text is sent in the first event and after the mode changes.
+ */
+class ChangeTextEmitter(
+  private val view: EnrichedTextInputView,
+) {
+  class Change(
+    val start: Int,
+    val deleteCount: Int,
+    val text: String,
+  )
+
+  private val changes = ArrayList<Change>()
+  private var revision = 0
+  private var needsValue = true
+  private var removedZeroWidthCount = 0
+
+  var isIncremental: Boolean = false
+    set(value) {
+      if (field == value) return
+      field = value
+      changes.clear()
+      needsValue = true
+    }
+
+  fun onBeforeTextChanged(
+    s: CharSequence,
+    start: Int,
+    count: Int,
+  ) {
+    if (!isIncremental || needsValue) return
+
+    removedZeroWidthCount = 0
+    for (i in start until start + count) {
+      if (s[i] == '\u200B') removedZeroWidthCount++
+    }
+  }
+
+  fun onTextChanged(
+    s: CharSequence,
+    start: Int,
+    before: Int,
+    count: Int,
+  ) {
+    if (!isIncremental || needsValue) return
+
+    // Text before the change is not affected, so its zero-width spaces are already indexed
+    val visibleStart = view.paragraphIndex.getVisibleOffset(s, start)
+    val text = s.subSequence(start, start + count).removeZeroWidthSpaces()
+    changes.add(Change(visibleStart, before - removedZeroWidthCount, text))
+  }
+
+  fun emit(s: Editable) {
+    val context = view.context as ReactContext
+    val surfaceId = UIManagerHelper.getSurfaceId(context)
+    val dispatcher = UIManagerHelper.getEventDispatcherForReactTag(context, view.id)
+
+    if (!isIncremental) {
+      dispatcher?.dispatchEvent(OnChangeTextEvent(surfaceId, view.id, s, view.experimentalSynchronousEvents))
+      return
+    }
+
+    if (!needsValue && changes.isEmpty()) return
+
+    revision++
+    val value = if (needsValue) s.removeZeroWidthSpaces() else null
+    val eventChanges = if (needsValue) emptyList() else ArrayList(changes)
+    changes.clear()
+    needsValue = false
+
+    dispatcher?.dispatchEvent(
+      OnChangeTextDeltaEvent(
+        surfaceId,
+        view.id,
+        revision,
+        eventChanges,
+        value,
+        view.experimentalSynchronousEvents,
+      ),
+    )
+  }
+}
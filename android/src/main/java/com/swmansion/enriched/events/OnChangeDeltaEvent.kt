@@ -0,0 +1,81 @@
+package com.swmansion.enriched.events
+
+import com.facebook.react.bridge.Arguments
+import com.facebook.react.bridge.WritableMap
+import com.facebook.react.uimanager.events.Event
+
+class OnChangeDeltaEvent(
+  surfaceId: Int,
+  viewId: Int,
+  private val revision: Int,
+  private val ops: List<ChangeDeltaEmitter.Op>,
+  private val snapshot: ChangeDeltaEmitter.Snapshot?,
+  private val experimentalSynchronousEvents: Boolean,
+) : Event<OnChangeDeltaEvent>(surfaceId, viewId) {
+  override fun getEventName(): String = EVENT_NAME
+
+  override fun getEventData(): WritableMap {
+    val opsData = Arguments.createArray()
+    for (op in ops) {
+      opsData.pushMap(createOpData(op))
+    }
+
+    val eventData: WritableMap = Arguments.createMap()
+    eventData.putInt("revision", revision)
+    eventData.putArray("ops", opsData)
+
+    if (snapshot != null) {
+      val ranges = Arguments.createArray()
+      for (range in snapshot.ranges) {
+        ranges.pushMap(createOpData(range))
+      }
+
+      val snapshotData = Arguments.createMap()
+      snapshotData.putString("text", snapshot.text)
+      snapshotData.putArray("ranges", ranges)
+      eventData.putMap("snapshot", snapshotData)
+    }
+
+    return eventData
+  }
+
+  private fun createOpData(op: ChangeDeltaEmitter.Op): WritableMap {
+    val opData = Arguments.createMap()
+    opData.putString("op", op.op)
+
+    when (op.op) {
+      "retain", "delete" -> {
+        opData.putInt("count", op.count)
+      }
+
+      "insert" -> {
+        opData.putString("text", op.text)
+      }
+
+      "removeFormat" -> {
+        opData.putInt("id", op.id)
+      }
+
+      "addFormat" -> {
+        val attributes = Arguments.createMap()
+        for ((key, value) in op.attributes.orEmpty()) {
+          attributes.putString(key, value)
+        }
+
+        opData.putInt("id", op.id)
+        opData.putString("type", op.type)
+        opData.putInt("start", op.start)
+        opData.putInt("end", op.end)
+        opData.putMap("attrs", attributes)
+      }
+    }
+
+    return opData
+  }
+
+  override fun experimental_isSynchronous(): Boolean = experimentalSynchronousEvents
+
+  companion object {
+    const val EVENT_NAME: String = "onChangeDelta"
+  }
+}
@@ -0,0 +1,44 @@
+package com.swmansion.enriched.events
+
+import com.facebook.react.bridge.Arguments
+import com.facebook.react.bridge.WritableMap
+import com.facebook.react.uimanager.events.Event
+import com.swmansion.enriched.utils.EnrichedDocument
+
+class OnChangeDocumentEvent(
+  surfaceId: Int,
+  viewId: Int,
+  private val document: EnrichedDocument,
+  private val experimentalSynchronousEvents: Boolean,
+) : Event<OnChangeDocumentEvent>(surfaceId, viewId) {
+  override fun getEventName(): String = EVENT_NAME
+
+  override fun getEventData(): WritableMap {
+    val ranges = Arguments.createArray()
+    for (range in document.ranges) {
+      val attributes = Arguments.createMap()
+      for ((key, value) in range.attributes) {
+        attributes.putString(key, value)
+      }
+
+      val rangeData = Arguments.createMap()
+      rangeData.putString("type", range.type)
+      rangeData.putInt("start", range.start)
+      rangeData.putInt("end", range.end)
+      rangeData.putMap("attrs", attributes)
+      ranges.pushMap(rangeData)
+    }
+
+    val eventData: WritableMap = Arguments.createMap()
+    eventData.putString("text", document.text)
+    eventData.putArray("ranges", ranges)
+
+    return eventData
+  }
+
+  override fun experimental_isSynchronous(): Boolean = experimentalSynchronousEvents
+
+  companion object {
+    const val EVENT_NAME: String = "onChangeDocument"
+  }
+}
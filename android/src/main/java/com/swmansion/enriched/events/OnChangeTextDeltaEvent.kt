@@ -0,0 +1,42 @@
+package com.swmansion.enriched.events
+
+import com.facebook.react.bridge.Arguments
+import com.facebook.react.bridge.WritableMap
+import com.facebook.react.uimanager.events.Event
+
+class OnChangeTextDeltaEvent(
+  surfaceId: Int,
+  viewId: Int,
+  private val revision: Int,
+  private val changes: List<ChangeTextEmitter.Change>,
+  private val value: String?,
+  private val experimentalSynchronousEvents: Boolean,
+) : Event<OnChangeTextDeltaEvent>(surfaceId, viewId) {
+  override fun getEventName(): String = EVENT_NAME
+
+  override fun getEventData(): WritableMap {
+    val changesData = Arguments.createArray()
+    for (change in changes) {
+      val changeData = Arguments.createMap()
+      changeData.putInt("start", change.start)
+      changeData.putInt("deleteCount", change.deleteCount)
+      changeData.putString("text", change.text)
+      changesData.pushMap(changeData)
+    }
+
+    val eventData: WritableMap = Arguments.createMap()
+    eventData.putInt("revision", revision)
+    eventData.putArray("changes", changesData)
+    if (value != null) eventData.putString("value", value)
+    return eventData
+  }
+
+  // Every event depends on the previous ones, so none of them can be dropped
+  override fun canCoalesce(): Boolean = false
+
+  override fun experimental_isSynchronous(): Boolean = experimentalSynchronousEvents
+
+  companion object {
+    const val EVENT_NAME: String = "onChangeTextDelta"
+  }
+}
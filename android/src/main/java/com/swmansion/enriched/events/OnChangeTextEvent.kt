@@ -4,6 +4,7 @@ import android.text.Editable
 import com.facebook.react.bridge.Arguments
 import com.facebook.react.bridge.WritableMap
 import com.facebook.react.uimanager.events.Event
+import com.swmansion.enriched.utils.removeZeroWidthSpaces
 
 class OnChangeTextEvent(
   surfaceId: Int,
@@ -15,9 +16,7 @@ class OnChangeTextEvent(
 
   override fun getEventData(): WritableMap {
     val eventData: WritableMap = Arguments.createMap()
-    val text = editable.toString()
-    val normalizedText = text.replace(Regex("\\u200B"), "")
-    eventData.putString("value", normalizedText)
+    eventData.putString("value", editable.removeZeroWidthSpaces())
     return eventData
   }
 
@@ -1,5 +1,6 @@
 package com.swmansion.enriched.styles
 
+import android.content.Context
 import android.graphics.Color
 import com.facebook.react.bridge.ColorPropConverter
 import com.facebook.react.bridge.ReactContext
@@ -16,6 +17,10 @@ class HtmlStyle {
   private var style: ReadableMap? = null
   private var view: EnrichedTextInputView? = null
 
+  // Used instead of the view's values when measuring without a view, the context only while resolving colors
+  private var context: Context? = null
+  private var fontSize: Float? = null
+
   // Default values are ignored as they are specified on the JS side.
   // They are specified only because they are required by the constructor.
   // JS passes them as a prop - so they are initialized after the constructor is called.
@@ -62,6 +67,16 @@ class HtmlStyle {
     invalidateStyles()
   }
 
+  constructor(context: Context, fontSize: Float?, style: ReadableMap?) {
+    this.context = context
+    this.fontSize = fontSize
+    this.style = style
+
+    invalidateStyles()
+    // Styles resolved for measurement are cached, so they must not retain the surface context and its activity
+    this.context = null
+  }
+
   fun invalidateStyles() {
     val style = this.style ?: return
 
@@ -85,7 +100,7 @@ class HtmlStyle {
 
     val olStyle = style.getMap("ol")
     val userDefinedMarginLeft = parseFloat(olStyle, "marginLeft").toInt()
-    val calculatedMarginLeft = calculateOlMarginLeft(view, userDefinedMarginLeft)
+    val calculatedMarginLeft = calculateOlMarginLeft(userDefinedMarginLeft)
     olMarginLeft = calculatedMarginLeft
     olGapWidth = parseFloat(olStyle, "gapWidth").toInt()
     olMarkerColor = parseOptionalColor(olStyle, "markerColor")
@@ -151,7 +166,7 @@ class HtmlStyle {
     val safeMap = ensureValueIsSet(map, key)
 
     val color = safeMap.getDouble(key)
-    val parsedColor = ColorPropConverter.getColor(color, view?.context as ReactContext)
+    val parsedColor = ColorPropConverter.getColor(color, context ?: view?.context as ReactContext)
     if (parsedColor == null) {
       throw Error("Specified color value is not supported: $color")
     }
@@ -180,11 +195,8 @@ class HtmlStyle {
     throw Error("Specified textDecorationLine value is not supported: $underline. Supported values are 'underline' and 'none'.")
   }
 
-  private fun calculateOlMarginLeft(
-    view: EnrichedTextInputView?,
-    userMargin: Int,
-  ): Int {
-    val fontSize = view?.fontSize?.toInt() ?: 0
+  private fun calculateOlMarginLeft(userMargin: Int): Int {
+    val fontSize = (view?.fontSize ?: this.fontSize)?.toInt() ?: 0
     val leadMargin = fontSize / 2
 
     return leadMargin + userMargin
@@ -8,7 +8,6 @@ import com.swmansion.enriched.EnrichedTextInputView
 import com.swmansion.enriched.spans.EnrichedOrderedListSpan
 import com.swmansion.enriched.spans.EnrichedSpans
 import com.swmansion.enriched.spans.EnrichedUnorderedListSpan
-import com.swmansion.enriched.utils.getParagraphBounds
 import com.swmansion.enriched.utils.getSafeSpanBoundaries
 
 class ListStyles(
@@ -21,7 +20,7 @@ class ListStyles(
   ): T? {
     if (s <= 0) return null
 
-    val (previousParagraphStart, previousParagraphEnd) = spannable.getParagraphBounds(s - 1)
+    val (previousParagraphStart, previousParagraphEnd) = view.paragraphIndex.getParagraphBounds(spannable, s - 1)
     val spans = spannable.getSpans(previousParagraphStart, previousParagraphEnd, type)
 
     if (spans.isNotEmpty()) {
@@ -148,7 +147,7 @@ class ListStyles(
   ) {
     val config = EnrichedSpans.listSpans[name] ?: return
     val cursorPosition = endCursorPosition.coerceAtMost(s.length)
-    val (start, end) = s.getParagraphBounds(cursorPosition)
+    val (start, end) = view.paragraphIndex.getParagraphBounds(s, cursorPosition)
 
     val isBackspace = previousTextLength > s.length
     val isNewLine = cursorPosition > 0 && s[cursorPosition - 1] == '\n'
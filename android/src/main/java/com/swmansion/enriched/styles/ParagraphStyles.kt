@@ -7,7 +7,6 @@ import android.util.Log
 import com.swmansion.enriched.EnrichedTextInputView
 import com.swmansion.enriched.spans.EnrichedSpans
 import com.swmansion.enriched.spans.interfaces.EnrichedSpan
-import com.swmansion.enriched.utils.getParagraphBounds
 import com.swmansion.enriched.utils.getSafeSpanBoundaries
 
 class ParagraphStyles(
@@ -20,7 +19,7 @@ class ParagraphStyles(
   ): T? {
     if (paragraphStart <= 0) return null
 
-    val (previousParagraphStart, previousParagraphEnd) = spannable.getParagraphBounds(paragraphStart - 1)
+    val (previousParagraphStart, previousParagraphEnd) = view.paragraphIndex.getParagraphBounds(spannable, paragraphStart - 1)
     val spans = spannable.getSpans(previousParagraphStart, previousParagraphEnd, type)
 
     // A paragraph implies a single cohesive style. having multiple spans of the
@@ -43,7 +42,7 @@ class ParagraphStyles(
   ): T? {
     if (paragraphEnd >= spannable.length - 1) return null
 
-    val (nextParagraphStart, nextParagraphEnd) = spannable.getParagraphBounds(paragraphEnd + 1)
+    val (nextParagraphStart, nextParagraphEnd) = view.paragraphIndex.getParagraphBounds(spannable, paragraphEnd + 1)
 
     val spans = spannable.getSpans(nextParagraphStart, nextParagraphEnd, type)
 
@@ -204,7 +203,7 @@ class ParagraphStyles(
     endCursorPosition: Int,
     type: Class<T>,
   ) {
-    val (start, end) = s.getParagraphBounds(endCursorPosition)
+    val (start, end) = view.paragraphIndex.getParagraphBounds(s, endCursorPosition)
     val currParagraphSpans = s.getSpans(start, end, type)
 
     if (currParagraphSpans.isEmpty()) {
@@ -316,7 +315,7 @@ class ParagraphStyles(
 
       if (styleStart == null) {
         if (isBackspace) {
-          val (start, end) = s.getParagraphBounds(endCursorPosition)
+          val (start, end) = view.paragraphIndex.getParagraphBounds(s, endCursorPosition)
           val spans = s.getSpans(start, end, config.clazz)
 
           for (span in spans) {
@@ -347,7 +346,7 @@ class ParagraphStyles(
         }
       }
 
-      var (start, end) = s.getParagraphBounds(styleStart, endCursorPosition)
+      var (start, end) = view.paragraphIndex.getParagraphBounds(s, styleStart, endCursorPosition)
 
       // handle conflicts when deleting newline from paragraph style (going back to previous line)
       if (isBackspace && styleStart != start) {
@@ -0,0 +1,226 @@
+package com.swmansion.enriched.utils;
+
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import com.swmansion.enriched.spans.interfaces.EnrichedZeroWidthSpaceSpan;
+import com.swmansion.enriched.styles.HtmlStyle;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Parses large documents produced by {@link EnrichedParser#toHtml} in parallel. The markup is split
+ * between top-level blocks that reset the converter state (paragraphs, lists, blockquotes and
+ * codeblocks), so every chunk is converted exactly like the sequential parser would convert it,
+ * including ordered list numbering and zero-width space placement. Parsed chunks are then joined
+ * with their span offsets rebased.
+ */
+final class EnrichedChunkedParser {
+  // Chunks smaller than that are not worth a separate task
+  private static final int MIN_CHUNK_LENGTH = 16 * 1024;
+
+  private EnrichedChunkedParser() {}
+
+  private static final class Chunk {
+    final int mStart;
+    final int mEnd;
+    final boolean mIsBodyStarted;
+
+    Chunk(int start, int end, boolean isBodyStarted) {
+      mStart = start;
+      mEnd = end;
+      mIsBodyStarted = isBodyStarted;
+    }
+  }
+
+  /**
+   * Returns null if the source can't be split, or uses markup outside of the schema. The caller
+   * should use the sequential parser then.
+   */
+  static Spanned parse(
+      final String source,
+      final HtmlStyle style,
+      final EnrichedParser.ImageGetter imageGetter,
+      int parallelism,
+      ExecutorService executor) {
+    int chunkLength = Math.max(MIN_CHUNK_LENGTH, source.length() / (parallelism * 4));
+    ArrayList<Chunk> chunks = split(source, chunkLength);
+    if (chunks == null || chunks.size() < 2) {
+      return null;
+    }
+
+    ArrayList<Future<Spanned>> futures = new ArrayList<>(chunks.size() - 1);
+    for (int i = 1; i < chunks.size(); i++) {
+      final Chunk chunk = chunks.get(i);
+      futures.add(executor.submit(() -> parseChunk(source, chunk, style, imageGetter)));
+    }
+
+    Spanned[] parts = new Spanned[chunks.size()];
+    try {
+      parts[0] = parseChunk(source, chunks.get(0), style, imageGetter);
+      for (int i = 1; i < chunks.size(); i++) {
+        parts[i] = futures.get(i - 1).get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      for (Future<Spanned> future : futures) {
+        future.cancel(false);
+      }
+    }
+
+    for (Spanned part : parts) {
+      if (part == null) {
+        return null;
+      }
+    }
+    return join(parts);
+  }
+
+  private static Spanned parseChunk(
+      String source, Chunk chunk, HtmlStyle style, EnrichedParser.ImageGetter imageGetter) {
+    String chunkSource = "<html>" + source.substring(chunk.mStart, chunk.mEnd) + "</html>";
+    return new HtmlToSpannedConverter(chunkSource, style, imageGetter)
+        .convertCanonical(chunk.mIsBodyStarted);
+  }
+
+  private static Spanned join(Spanned[] parts) {
+    int length = 0;
+    for (Spanned part : parts) {
+      length += part.length();
+    }
+
+    StringBuilder text = new StringBuilder(length);
+    for (Spanned part : parts) {
+      text.append(part);
+    }
+    SpannableStringBuilder result = new SpannableStringBuilder(text);
+
+    // Zero-width space spans go last, same as in the sequential parser
+    copySpans(parts, result, false);
+    copySpans(parts, result, true);
+    return result;
+  }
+
+  private static void copySpans(
+      Spanned[] parts, SpannableStringBuilder result, boolean isZeroWidthSpaceSpan) {
+    int offset = 0;
+    for (Spanned part : parts) {
+      Object[] spans = part.getSpans(0, part.length(), Object.class);
+      for (Object span : spans) {
+        if ((span instanceof EnrichedZeroWidthSpaceSpan) != isZeroWidthSpaceSpan) continue;
+
+        result.setSpan(
+            span,
+            offset + part.getSpanStart(span),
+            offset + part.getSpanEnd(span),
+            part.getSpanFlags(span));
+      }
+      offset += part.length();
+    }
+  }
+
+  /**
+   * Splits the content of the root element before top-level paragraphs, lists, blockquotes and
+   * codeblocks, once a chunk is at least chunkLength long. Headings and line breaks depend on the
+   * state left by previous elements, so chunks never start with them.
+   */
+  private static ArrayList<Chunk> split(String source, int chunkLength) {
+    if (!source.startsWith("<html>")) {
+      return null;
+    }
+
+    ArrayList<Chunk> chunks = new ArrayList<>();
+    int length = source.length();
+    int position = 6;
+    int chunkStart = position;
+    boolean isChunkBodyStarted = false;
+    boolean isBodyStarted = false;
+    int depth = 0;
+
+    while (true) {
+      int tagStart = source.indexOf('<', position);
+      if (tagStart < 0 || tagStart + 1 >= length) {
+        return null;
+      }
+
+      boolean isEndTag = source.charAt(tagStart + 1) == '/';
+      int nameStart = isEndTag ? tagStart + 2 : tagStart + 1;
+      int nameEnd = nameStart;
+      while (nameEnd < length && isNameChar(source.charAt(nameEnd))) {
+        nameEnd++;
+      }
+      int tagEnd = findTagEnd(source, nameEnd);
+      if (tagEnd < 0 || nameEnd == nameStart) {
+        return null;
+      }
+      String name = source.substring(nameStart, nameEnd);
+      position = tagEnd;
+
+      if (isEndTag) {
+        if (depth == 0) {
+          if (!name.equals("html")) {
+            return null;
+          }
+          chunks.add(new Chunk(chunkStart, tagStart, isChunkBodyStarted));
+          return chunks;
+        }
+        depth--;
+        continue;
+      }
+
+      boolean isSelfClosing = source.charAt(tagEnd - 2) == '/';
+      if (depth == 0) {
+        if (tagStart - chunkStart >= chunkLength && isSplitPoint(name)) {
+          chunks.add(new Chunk(chunkStart, tagStart, isChunkBodyStarted));
+          chunkStart = tagStart;
+          isChunkBodyStarted = isBodyStarted;
+        }
+        // Mirrors the implicit <body> handling of the tokenizer
+        if (!name.equals("codeblock")) {
+          isBodyStarted = true;
+        }
+      }
+      if (!isSelfClosing && !name.equals("br") && !name.equals("img")) {
+        depth++;
+      }
+    }
+  }
+
+  private static boolean isSplitPoint(String name) {
+    return name.equals("p")
+        || name.equals("ul")
+        || name.equals("ol")
+        || name.equals("blockquote")
+        || name.equals("codeblock");
+  }
+
+  private static boolean isNameChar(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9');
+  }
+
+  // Returns the position right after the closing '>', skipping quoted attribute values
+  private static int findTagEnd(String source, int position) {
+    int length = source.length();
+    char quote = 0;
+    for (int i = position; i < length; i++) {
+      char c = source.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '"' || c == '\'') {
+        quote = c;
+      } else if (c == '>') {
+        return i + 1;
+      } else if (c == '<') {
+        return -1;
+      }
+    }
+    return -1;
+  }
+}
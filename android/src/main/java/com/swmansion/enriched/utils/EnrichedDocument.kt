@@ -0,0 +1,90 @@
+package com.swmansion.enriched.utils
+
+import android.text.Spanned
+import com.swmansion.enriched.spans.EnrichedImageSpan
+import com.swmansion.enriched.spans.EnrichedLinkSpan
+import com.swmansion.enriched.spans.EnrichedMentionSpan
+import com.swmansion.enriched.spans.EnrichedSpans
+import com.swmansion.enriched.spans.interfaces.EnrichedSpan
+
+// Plain text of a document without zero-width spaces, with style ranges expressed in that text
+data class EnrichedDocument(
+  val text: String,
+  val ranges: List<Range>,
+) {
+  data class Range(
+    val type: String,
+    val start: Int,
+    val end: Int,
+    val attributes: Map<String, String>,
+  )
+
+  companion object {
+    private val typeNames: Map<Class<*>, String> = EnrichedSpans.allSpans.entries.associate { it.value.clazz to it.key }
+
+    fun fromSpanned(spanned: Spanned): EnrichedDocument {
+      val text = StringBuilder(spanned.length)
+      var zeroWidthSpaces = IntArray(16)
+      var zeroWidthSpacesCount = 0
+      for (i in 0 until spanned.length) {
+        val c = spanned[i]
+        if (c != '\u200B') {
+          text.append(c)
+          continue
+        }
+
+        if (zeroWidthSpacesCount == zeroWidthSpaces.size) {
+          zeroWidthSpaces = zeroWidthSpaces.copyOf(zeroWidthSpacesCount * 2)
+        }
+        zeroWidthSpaces[zeroWidthSpacesCount++] = i
+      }
+
+      // Maps an offset in the spanned to an offset in the text without zero-width spaces
+      fun visibleOffset(offset: Int): Int {
+        var low = 0
+        var high = zeroWidthSpacesCount
+        while (low < high) {
+          val mid = (low + high) ushr 1
+          if (zeroWidthSpaces[mid] < offset) low = mid + 1 else high = mid
+        }
+        return offset - low
+      }
+
+      val spans = spanned.getSpans(0, spanned.length, EnrichedSpan::class.java)
+      val ranges = ArrayList<Range>(spans.size)
+      for (span in spans) {
+        val type = typeOf(span) ?: continue
+        val start = visibleOffset(spanned.getSpanStart(span))
+        val end = visibleOffset(spanned.getSpanEnd(span))
+        ranges.add(Range(type, start, end, attributesOf(span)))
+      }
+
+      return EnrichedDocument(text.toString(), ranges)
+    }
+
+    fun typeOf(span: EnrichedSpan): String? = typeNames[span.javaClass]
+
+    fun attributesOf(span: EnrichedSpan): Map<String, String> =
+      when (span) {
+        is EnrichedLinkSpan -> {
+          mapOf("url" to span.getUrl())
+        }
+
+        is EnrichedMentionSpan -> {
+          span.getAttributes() + mapOf("text" to span.getText(), "indicator" to span.getIndicator())
+        }
+
+        is EnrichedImageSpan -> {
+          mapOf(
+            "uri" to (span.source ?: ""),
+            "width" to span.getWidth().toString(),
+            "height" to span.getHeight().toString(),
+          )
+        }
+
+        else -> {
+          emptyMap()
+        }
+      }
+  }
+}
@@ -0,0 +1,29 @@
+package com.swmansion.enriched.utils
+
+import android.os.Handler
+import android.os.Looper
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+object EnrichedExecutors {
+  // Runs document parsing and serialization off the main thread, tasks are executed in order
+  val background: ExecutorService =
+    Executors.newSingleThreadExecutor { runnable ->
+      Thread(runnable, "EnrichedTextInputBackground").apply { isDaemon = true }
+    }
+
+  // Number of workers parsing chunks of large documents, the calling thread parses one chunk too
+  @JvmField
+  val parserParallelism: Int = (Runtime.getRuntime().availableProcessors() - 1).coerceIn(1, 4)
+
+  private val parserThreadCount = AtomicInteger()
+
+  @JvmField
+  val parser: ExecutorService =
+    Executors.newFixedThreadPool(parserParallelism) { runnable ->
+      Thread(runnable, "EnrichedTextInputParser-${parserThreadCount.incrementAndGet()}").apply { isDaemon = true }
+    }
+
+  val mainHandler = Handler(Looper.getMainLooper())
+}
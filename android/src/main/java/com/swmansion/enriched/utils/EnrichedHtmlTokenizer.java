@@ -0,0 +1,443 @@
+package com.swmansion.enriched.utils;
+
+import java.util.Arrays;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Single-pass tokenizer for the HTML produced by {@link EnrichedParser#toHtml}. It reports the same
+ * SAX events TagSoup would report for that markup, so it can drive {@link HtmlToSpannedConverter}
+ * directly. Anything outside of the schema (unknown tags, comments, unbalanced or unusual nesting,
+ * unknown entities) makes it give up with {@link UnsupportedHtmlException}, in which case the caller
+ * should fall back to TagSoup.
+ */
+final class EnrichedHtmlTokenizer {
+  static final class UnsupportedHtmlException extends Exception {
+    UnsupportedHtmlException(String message) {
+      super(message);
+    }
+  }
+
+  private static final int HTML = 0;
+  private static final int PARAGRAPH = 1;
+  private static final int HEADING = 2;
+  private static final int LIST = 3;
+  private static final int LIST_ITEM = 4;
+  private static final int BLOCKQUOTE = 5;
+  private static final int CODEBLOCK = 6;
+  private static final int INLINE = 7;
+  private static final int LINK = 8;
+  private static final int MENTION = 9;
+  private static final int BR = 10;
+  private static final int IMG = 11;
+
+  private final String mSource;
+  private final ContentHandler mHandler;
+  private final AttributesImpl mAttributes = new AttributesImpl();
+  private final StringBuilder mScratch = new StringBuilder();
+
+  private String[] mStackNames = new String[16];
+  private int[] mStackKinds = new int[16];
+  private int mDepth = 0;
+  private boolean mIsBodyStarted;
+  private char[] mBuffer = new char[256];
+  private int mPosition = 0;
+
+  EnrichedHtmlTokenizer(String source, ContentHandler handler) {
+    this(source, handler, false);
+  }
+
+  /**
+   * @param isBodyStarted Whether the implicit body was already started, used when the source is a
+   *     part of a larger document
+   */
+  EnrichedHtmlTokenizer(String source, ContentHandler handler, boolean isBodyStarted) {
+    mSource = source;
+    mHandler = handler;
+    mIsBodyStarted = isBodyStarted;
+  }
+
+  void tokenize() throws UnsupportedHtmlException, SAXException {
+    final String source = mSource;
+    final int length = source.length();
+
+    if (!source.startsWith("<html>")) {
+      throw new UnsupportedHtmlException("Missing <html> root");
+    }
+    push("html", HTML);
+    mPosition = 6;
+
+    while (mDepth > 0) {
+      if (mPosition >= length) {
+        throw new UnsupportedHtmlException("Unexpected end of input");
+      }
+
+      int tagStart = source.indexOf('<', mPosition);
+      int textEnd = tagStart < 0 ? length : tagStart;
+      if (textEnd > mPosition) {
+        handleText(mPosition, textEnd);
+      }
+      if (tagStart < 0) {
+        throw new UnsupportedHtmlException("Unexpected end of input");
+      }
+
+      mPosition = tagStart + 1;
+      if (mPosition < length && source.charAt(mPosition) == '/') {
+        mPosition++;
+        handleEndTag();
+      } else {
+        handleStartTag();
+      }
+    }
+
+    for (int i = mPosition; i < length; i++) {
+      if (!isWhitespace(source.charAt(i))) {
+        throw new UnsupportedHtmlException("Content after </html>");
+      }
+    }
+  }
+
+  private void handleStartTag() throws UnsupportedHtmlException, SAXException {
+    String name = readName();
+    int kind = kindOf(name);
+    readAttributes(kind);
+
+    boolean isSelfClosing = false;
+    if (peek() == '/') {
+      mPosition++;
+      isSelfClosing = true;
+    }
+    expect('>');
+
+    int parent = mStackKinds[mDepth - 1];
+    if (!canContain(parent, kind)) {
+      throw new UnsupportedHtmlException("Unsupported nesting of <" + name + ">");
+    }
+    if ((kind == LINK || kind == MENTION) && isOpen(kind)) {
+      throw new UnsupportedHtmlException("Nested <" + name + ">");
+    }
+
+    // TagSoup places everything except unknown block tags inside an implicit <body>
+    if (parent == HTML && kind != CODEBLOCK) {
+      mIsBodyStarted = true;
+    }
+
+    boolean isEmptyElement = kind == BR || kind == IMG;
+    if (isSelfClosing && !isEmptyElement) {
+      throw new UnsupportedHtmlException("Self-closing <" + name + ">");
+    }
+
+    mHandler.startElement("", name, name, mAttributes);
+    if (isEmptyElement) {
+      mHandler.endElement("", name, name);
+      return;
+    }
+
+    push(name, kind);
+  }
+
+  private void handleEndTag() throws UnsupportedHtmlException, SAXException {
+    String name = readName();
+    skipWhitespace();
+    expect('>');
+
+    if (!name.equals(mStackNames[mDepth - 1])) {
+      throw new UnsupportedHtmlException("Unbalanced </" + name + ">");
+    }
+
+    mDepth--;
+    if (mDepth > 0) {
+      mHandler.endElement("", name, name);
+    }
+  }
+
+  private void handleText(int start, int end) throws UnsupportedHtmlException, SAXException {
+    final String source = mSource;
+    boolean isAllWhitespace = true;
+    boolean hasEntities = false;
+    for (int i = start; i < end; i++) {
+      char c = source.charAt(i);
+      if (c == '&') {
+        hasEntities = true;
+        isAllWhitespace = false;
+      } else if (c == '\r' || c == '>') {
+        throw new UnsupportedHtmlException("Unexpected character in text");
+      } else if (isAllWhitespace && !isWhitespace(c)) {
+        isAllWhitespace = false;
+      }
+    }
+
+    int current = mStackKinds[mDepth - 1];
+    if (isAllWhitespace) {
+      // TagSoup drops whitespace inside elements that cannot contain text
+      if (current == LIST || (current == HTML && !mIsBodyStarted)) {
+        return;
+      }
+    } else if (!canContainText(current)) {
+      throw new UnsupportedHtmlException("Text outside of a paragraph");
+    }
+
+    if (!hasEntities) {
+      int length = end - start;
+      ensureBuffer(length);
+      source.getChars(start, end, mBuffer, 0);
+      mHandler.characters(mBuffer, 0, length);
+      return;
+    }
+
+    mScratch.setLength(0);
+    decode(start, end, mScratch);
+    int length = mScratch.length();
+    ensureBuffer(length);
+    mScratch.getChars(0, length, mBuffer, 0);
+    mHandler.characters(mBuffer, 0, length);
+  }
+
+  private void readAttributes(int kind) throws UnsupportedHtmlException {
+    final String source = mSource;
+    mAttributes.clear();
+
+    while (true) {
+      boolean hadWhitespace = skipWhitespace();
+      char c = peek();
+      if (c == '>' || c == '/') {
+        return;
+      }
+      if (!hadWhitespace) {
+        throw new UnsupportedHtmlException("Malformed attributes");
+      }
+
+      String name = readName();
+      skipWhitespace();
+      expect('=');
+      skipWhitespace();
+
+      char quote = peek();
+      if (quote != '"' && quote != '\'') {
+        throw new UnsupportedHtmlException("Unquoted attribute value");
+      }
+      int valueStart = mPosition + 1;
+      int valueEnd = source.indexOf(quote, valueStart);
+      if (valueEnd < 0) {
+        throw new UnsupportedHtmlException("Unterminated attribute value");
+      }
+      mPosition = valueEnd + 1;
+
+      if (mAttributes.getIndex(name) >= 0) {
+        throw new UnsupportedHtmlException("Duplicated attribute " + name);
+      }
+
+      String value = source.substring(valueStart, valueEnd);
+      if (value.indexOf('&') >= 0) {
+        mScratch.setLength(0);
+        decode(valueStart, valueEnd, mScratch);
+        value = mScratch.toString();
+      }
+
+      if (kind == LINK || kind == MENTION || kind == IMG) {
+        mAttributes.addAttribute("", name, name, "CDATA", value);
+      }
+    }
+  }
+
+  // Tag and attribute names are restricted to lowercase ASCII, TagSoup would lowercase the rest
+  private String readName() throws UnsupportedHtmlException {
+    final String source = mSource;
+    int start = mPosition;
+    int end = start;
+    while (end < source.length()) {
+      char c = source.charAt(end);
+      if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9' && end > start) || c == '-' || c == '_') {
+        end++;
+      } else {
+        break;
+      }
+    }
+
+    if (end == start) {
+      throw new UnsupportedHtmlException("Expected a name");
+    }
+
+    mPosition = end;
+    return source.substring(start, end);
+  }
+
+  private void decode(int start, int end, StringBuilder out) throws UnsupportedHtmlException {
+    final String source = mSource;
+    int i = start;
+    while (i < end) {
+      char c = source.charAt(i);
+      if (c != '&') {
+        out.append(c);
+        i++;
+        continue;
+      }
+
+      int semicolon = source.indexOf(';', i);
+      if (semicolon < 0 || semicolon >= end) {
+        throw new UnsupportedHtmlException("Unterminated entity");
+      }
+
+      if (source.regionMatches(i, "&lt;", 0, 4)) {
+        out.append('<');
+      } else if (source.regionMatches(i, "&gt;", 0, 4)) {
+        out.append('>');
+      } else if (source.regionMatches(i, "&amp;", 0, 5)) {
+        out.append('&');
+      } else if (source.regionMatches(i, "&quot;", 0, 6)) {
+        out.append('"');
+      } else if (source.regionMatches(i, "&apos;", 0, 6)) {
+        out.append('\'');
+      } else if (source.regionMatches(i, "&nbsp;", 0, 6)) {
+        out.append(' ');
+      } else if (i + 2 < semicolon && source.charAt(i + 1) == '#') {
+        out.appendCodePoint(parseCodePoint(i + 2, semicolon));
+      } else {
+        throw new UnsupportedHtmlException("Unknown entity");
+      }
+
+      i = semicolon + 1;
+    }
+  }
+
+  private int parseCodePoint(int start, int end) throws UnsupportedHtmlException {
+    final String source = mSource;
+    int radix = 10;
+    if (source.charAt(start) == 'x' || source.charAt(start) == 'X') {
+      radix = 16;
+      start++;
+    }
+
+    if (start >= end || end - start > 8) {
+      throw new UnsupportedHtmlException("Invalid character reference");
+    }
+
+    int codePoint = 0;
+    for (int i = start; i < end; i++) {
+      int digit = Character.digit(source.charAt(i), radix);
+      if (digit < 0) {
+        throw new UnsupportedHtmlException("Invalid character reference");
+      }
+      codePoint = codePoint * radix + digit;
+    }
+
+    if (codePoint == 0 || !Character.isValidCodePoint(codePoint)) {
+      throw new UnsupportedHtmlException("Invalid character reference");
+    }
+
+    return codePoint;
+  }
+
+  private static int kindOf(String name) throws UnsupportedHtmlException {
+    switch (name) {
+      case "p":
+        return PARAGRAPH;
+      case "h1":
+      case "h2":
+      case "h3":
+        return HEADING;
+      case "ul":
+      case "ol":
+        return LIST;
+      case "li":
+        return LIST_ITEM;
+      case "blockquote":
+        return BLOCKQUOTE;
+      case "codeblock":
+        return CODEBLOCK;
+      case "b":
+      case "i":
+      case "u":
+      case "s":
+      case "strike":
+      case "code":
+        return INLINE;
+      case "a":
+        return LINK;
+      case "mention":
+        return MENTION;
+      case "br":
+        return BR;
+      case "img":
+        return IMG;
+      default:
+        throw new UnsupportedHtmlException("Unsupported tag <" + name + ">");
+    }
+  }
+
+  private static boolean canContain(int parent, int child) {
+    switch (child) {
+      case PARAGRAPH:
+        return parent == HTML || parent == BLOCKQUOTE || parent == CODEBLOCK;
+      case HEADING:
+      case LIST:
+      case BLOCKQUOTE:
+      case CODEBLOCK:
+        return parent == HTML;
+      case LIST_ITEM:
+        return parent == LIST;
+      case BR:
+        return parent != LIST;
+      default:
+        return canContainText(parent);
+    }
+  }
+
+  private static boolean canContainText(int kind) {
+    return kind == PARAGRAPH
+        || kind == HEADING
+        || kind == LIST_ITEM
+        || kind == INLINE
+        || kind == LINK
+        || kind == MENTION;
+  }
+
+  private boolean isOpen(int kind) {
+    for (int i = 0; i < mDepth; i++) {
+      if (mStackKinds[i] == kind) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void push(String name, int kind) {
+    if (mDepth == mStackKinds.length) {
+      mStackNames = Arrays.copyOf(mStackNames, mDepth * 2);
+      mStackKinds = Arrays.copyOf(mStackKinds, mDepth * 2);
+    }
+    mStackNames[mDepth] = name;
+    mStackKinds[mDepth] = kind;
+    mDepth++;
+  }
+
+  private void ensureBuffer(int length) {
+    if (mBuffer.length < length) {
+      mBuffer = new char[Math.max(length, mBuffer.length * 2)];
+    }
+  }
+
+  private char peek() {
+    return mPosition < mSource.length() ? mSource.charAt(mPosition) : '\0';
+  }
+
+  private void expect(char c) throws UnsupportedHtmlException {
+    if (peek() != c) {
+      throw new UnsupportedHtmlException("Expected '" + c + "'");
+    }
+    mPosition++;
+  }
+
+  private boolean skipWhitespace() {
+    int start = mPosition;
+    while (mPosition < mSource.length() && isWhitespace(mSource.charAt(mPosition))) {
+      mPosition++;
+    }
+    return mPosition > start;
+  }
+
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\n' || c == '\t';
+  }
+}
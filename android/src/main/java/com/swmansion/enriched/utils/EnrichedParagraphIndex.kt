@@ -0,0 +1,354 @@
+package com.swmansion.enriched.utils
+
+import android.text.Spannable
+import com.swmansion.enriched.EnrichedTextInputView
+
+/**
+ * Paragraph boundaries and zero-width space positions of the view's text, kept up to date by
+ * [com.swmansion.enriched.watchers.EnrichedTextWatcher].
+ *
+ * Paragraph lengths (including the trailing newline) and the number of zero-width spaces in every paragraph are
+ * stored in Fenwick trees, so finding the paragraph containing an offset, and mapping offsets in the text to offsets
+ * visible to JS (without zero-width spaces) and back take O(log n). Zero-width spaces are inserted at paragraph
+ * starts, only paragraphs having them anywhere else are scanned. Edits that don't add or remove newlines update
+ * a single entry, other edits rescan the affected paragraphs and rebuild the trees. Queries for any other text,
+ * or made in the middle of an edit, fall back to scanning the text.
+ */
+class EnrichedParagraphIndex(
+  private val view: EnrichedTextInputView,
+) {
+  // Text the index was built for, null if it has to be rebuilt before the next query
+  private var text: CharSequence? = null
+  private var textLength = 0
+  private var isEditPending = false
+  private var removedZeroWidthCount = 0
+
+  private var lengths = IntArray(INITIAL_CAPACITY)
+  private var zeroWidthCounts = IntArray(INITIAL_CAPACITY)
+  private var leadingZeroWidthCounts = IntArray(INITIAL_CAPACITY)
+  private var tree = IntArray(INITIAL_CAPACITY + 1)
+  private var zeroWidthTree = IntArray(INITIAL_CAPACITY + 1)
+  private var paragraphCount = 0
+
+  fun onBeforeTextChanged(
+    s: CharSequence,
+    start: Int,
+    count: Int,
+  ) {
+    isEditPending = true
+    removedZeroWidthCount = if (s === text) s.countZeroWidthSpaces(start, start + count) else 0
+  }
+
+  fun onTextChanged(
+    s: CharSequence,
+    start: Int,
+    before: Int,
+    count: Int,
+  ) {
+    isEditPending = false
+    if (s !== text || textLength - before + count != s.length) {
+      text = null
+      return
+    }
+
+    applyEdit(s, start, before, count)
+    textLength = s.length
+  }
+
+  fun getParagraphBounds(
+    spannable: Spannable,
+    start: Int,
+    end: Int,
+  ): Pair<Int, Int> {
+    if (!ensureIndexed(spannable)) return spannable.getParagraphBounds(start, end)
+
+    val startIndex = findParagraph(start.coerceIn(0, textLength))
+    val endIndex = findParagraph(end.coerceIn(0, textLength))
+    val endPosition = getParagraphEnd(endIndex)
+    val startPosition = getParagraphStart(startIndex).coerceAtMost(endPosition)
+
+    return Pair(startPosition, endPosition)
+  }
+
+  fun getParagraphBounds(
+    spannable: Spannable,
+    index: Int,
+  ): Pair<Int, Int> = getParagraphBounds(spannable, index, index)
+
+  fun getParagraphCount(spannable: CharSequence): Int {
+    if (!ensureIndexed(spannable)) return spannable.count { it == '\n' } + 1
+
+    return paragraphCount
+  }
+
+  // Maps an offset in the text to an offset in the text without zero-width spaces
+  fun getVisibleOffset(
+    spannable: CharSequence,
+    offset: Int,
+  ): Int {
+    val position = offset.coerceIn(0, spannable.length)
+    if (!ensureIndexed(spannable)) return position - spannable.countZeroWidthSpaces(0, position)
+
+    val index = findParagraph(position)
+    val paragraphStart = getParagraphStart(index)
+    val zeroWidthBefore =
+      if (zeroWidthCounts[index] == leadingZeroWidthCounts[index]) {
+        (position - paragraphStart).coerceAtMost(leadingZeroWidthCounts[index])
+      } else {
+        spannable.countZeroWidthSpaces(paragraphStart, position)
+      }
+
+    return position - sum(zeroWidthTree, index) - zeroWidthBefore
+  }
+
+  // Maps an offset in the text without zero-width spaces to the first matching offset in the text
+  fun getActualOffset(
+    spannable: CharSequence,
+    visibleOffset: Int,
+  ): Int {
+    if (visibleOffset <= 0) return 0
+    if (!ensureIndexed(spannable)) return spannable.findVisibleCharacterEnd(0, visibleOffset)
+
+    // Finds the paragraph containing the last visible character before the offset
+    var index = 0
+    var remaining = visibleOffset - 1
+    var step = Integer.highestOneBit(paragraphCount)
+    while (step > 0) {
+      val next = index + step
+      if (next <= paragraphCount && tree[next] - zeroWidthTree[next] <= remaining) {
+        index = next
+        remaining -= tree[next] - zeroWidthTree[next]
+      }
+      step = step shr 1
+    }
+    if (index >= paragraphCount) return textLength
+
+    val paragraphStart = getParagraphStart(index)
+    if (zeroWidthCounts[index] == leadingZeroWidthCounts[index]) {
+      return paragraphStart + leadingZeroWidthCounts[index] + remaining + 1
+    }
+
+    return spannable.findVisibleCharacterEnd(paragraphStart, remaining + 1)
+  }
+
+  private fun ensureIndexed(spannable: CharSequence): Boolean {
+    if (isEditPending) return false
+    if (spannable === text && spannable.length == textLength) return true
+    if (spannable !== view.text) return false
+
+    rebuild(spannable)
+    return true
+  }
+
+  private fun rebuild(s: CharSequence) {
+    text = s
+    textLength = s.length
+    paragraphCount = scanParagraphs(s, 0, s.length, 0)
+    rebuildTrees()
+  }
+
+  private fun applyEdit(
+    s: CharSequence,
+    start: Int,
+    before: Int,
+    count: Int,
+  ) {
+    val first = findParagraph(start)
+    val last = findParagraph(start + before)
+
+    var insertedNewlines = 0
+    for (i in start until start + count) {
+      if (s[i] == '\n') insertedNewlines++
+    }
+
+    if (first == last && insertedNewlines == 0) {
+      val paragraphStart = getParagraphStart(first)
+      val delta = count - before
+      val zeroWidthDelta = s.countZeroWidthSpaces(start, start + count) - removedZeroWidthCount
+      lengths[first] += delta
+      zeroWidthCounts[first] += zeroWidthDelta
+      leadingZeroWidthCounts[first] = s.countLeadingZeroWidthSpaces(paragraphStart, paragraphStart + lengths[first])
+      update(tree, first, delta)
+      update(zeroWidthTree, first, zeroWidthDelta)
+      return
+    }
+
+    // Newlines ending paragraphs first until last were inside of the replaced range, so these paragraphs
+    // are merged and split again only at the inserted newlines
+    val rangeStart = getParagraphStart(first)
+    val rangeEnd = getParagraphStart(last) + lengths[last] + count - before
+    val replacedCount = last - first + 1
+    val insertedCount = insertedNewlines + 1
+    val newCount = paragraphCount - replacedCount + insertedCount
+    ensureCapacity(newCount)
+
+    val movedCount = paragraphCount - last - 1
+    System.arraycopy(lengths, last + 1, lengths, first + insertedCount, movedCount)
+    System.arraycopy(zeroWidthCounts, last + 1, zeroWidthCounts, first + insertedCount, movedCount)
+    System.arraycopy(leadingZeroWidthCounts, last + 1, leadingZeroWidthCounts, first + insertedCount, movedCount)
+    scanParagraphs(s, rangeStart, rangeEnd, first)
+
+    paragraphCount = newCount
+    rebuildTrees()
+  }
+
+  // Stores paragraphs of s[from, to) starting at the given index, returns the number of stored paragraphs
+  private fun scanParagraphs(
+    s: CharSequence,
+    from: Int,
+    to: Int,
+    firstIndex: Int,
+  ): Int {
+    var index = firstIndex
+    var paragraphStart = from
+    var zeroWidthCount = 0
+    var leadingZeroWidthCount = 0
+
+    for (i in from until to) {
+      val c = s[i]
+      if (c == ZERO_WIDTH_SPACE) {
+        zeroWidthCount++
+        if (leadingZeroWidthCount == i - paragraphStart) leadingZeroWidthCount++
+      } else if (c == '\n') {
+        setParagraph(index++, i + 1 - paragraphStart, zeroWidthCount, leadingZeroWidthCount)
+        paragraphStart = i + 1
+        zeroWidthCount = 0
+        leadingZeroWidthCount = 0
+      }
+    }
+
+    // The last paragraph of the text doesn't end with a newline
+    if (to == s.length) {
+      setParagraph(index++, to - paragraphStart, zeroWidthCount, leadingZeroWidthCount)
+    }
+
+    return index - firstIndex
+  }
+
+  private fun setParagraph(
+    index: Int,
+    length: Int,
+    zeroWidthCount: Int,
+    leadingZeroWidthCount: Int,
+  ) {
+    ensureCapacity(index + 1)
+    lengths[index] = length
+    zeroWidthCounts[index] = zeroWidthCount
+    leadingZeroWidthCounts[index] = leadingZeroWidthCount
+  }
+
+  // Index of the paragraph containing the offset, a newline belongs to the paragraph it ends
+  private fun findParagraph(offset: Int): Int {
+    var index = 0
+    var remaining = offset
+    var step = Integer.highestOneBit(paragraphCount)
+    while (step > 0) {
+      val next = index + step
+      if (next <= paragraphCount && tree[next] <= remaining) {
+        index = next
+        remaining -= tree[next]
+      }
+      step = step shr 1
+    }
+
+    return index.coerceAtMost(paragraphCount - 1)
+  }
+
+  private fun getParagraphStart(index: Int): Int = sum(tree, index)
+
+  private fun getParagraphEnd(index: Int): Int {
+    val end = getParagraphStart(index) + lengths[index]
+    return if (index < paragraphCount - 1) end - 1 else end
+  }
+
+  private fun ensureCapacity(capacity: Int) {
+    if (capacity <= lengths.size) return
+
+    val newCapacity = maxOf(capacity, lengths.size * 2)
+    lengths = lengths.copyOf(newCapacity)
+    zeroWidthCounts = zeroWidthCounts.copyOf(newCapacity)
+    leadingZeroWidthCounts = leadingZeroWidthCounts.copyOf(newCapacity)
+    tree = IntArray(newCapacity + 1)
+    zeroWidthTree = IntArray(newCapacity + 1)
+  }
+
+  private fun rebuildTrees() {
+    build(tree, lengths)
+    build(zeroWidthTree, zeroWidthCounts)
+  }
+
+  private fun build(
+    tree: IntArray,
+    values: IntArray,
+  ) {
+    tree.fill(0, 0, paragraphCount + 1)
+    for (i in 1..paragraphCount) {
+      tree[i] += values[i - 1]
+      val parent = i + (i and -i)
+      if (parent <= paragraphCount) tree[parent] += tree[i]
+    }
+  }
+
+  // Sum of the values of all paragraphs before the given one
+  private fun sum(
+    tree: IntArray,
+    index: Int,
+  ): Int {
+    var sum = 0
+    var i = index
+    while (i > 0) {
+      sum += tree[i]
+      i -= i and -i
+    }
+    return sum
+  }
+
+  private fun update(
+    tree: IntArray,
+    index: Int,
+    delta: Int,
+  ) {
+    var i = index + 1
+    while (i <= paragraphCount) {
+      tree[i] += delta
+      i += i and -i
+    }
+  }
+
+  private fun CharSequence.countZeroWidthSpaces(
+    start: Int,
+    end: Int,
+  ): Int {
+    var count = 0
+    for (i in start until end) {
+      if (this[i] == ZERO_WIDTH_SPACE) count++
+    }
+    return count
+  }
+
+  private fun CharSequence.countLeadingZeroWidthSpaces(
+    start: Int,
+    end: Int,
+  ): Int {
+    var i = start
+    while (i < end && this[i] == ZERO_WIDTH_SPACE) i++
+    return i - start
+  }
+
+  // Position right after the n-th visible character counted from start, or the text length if there are fewer
+  private fun CharSequence.findVisibleCharacterEnd(
+    start: Int,
+    n: Int,
+  ): Int {
+    var remaining = n
+    for (i in start until length) {
+      if (this[i] != ZERO_WIDTH_SPACE && --remaining == 0) return i + 1
+    }
+    return length
+  }
+
+  companion object {
+    private const val INITIAL_CAPACITY = 16
+    private const val ZERO_WIDTH_SPACE = '\u200B'
+  }
+}
@@ -31,6 +31,8 @@ import com.swmansion.enriched.spans.interfaces.EnrichedZeroWidthSpaceSpan;
 import com.swmansion.enriched.styles.HtmlStyle;
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import org.ccil.cowan.tagsoup.HTMLSchema;
@@ -61,6 +63,18 @@ public class EnrichedParser {
     Drawable getDrawable(String source);
   }
 
+  /**
+   * Option for {@link #toHtml(Spanned, int)}: Escape every character outside of printable ASCII as
+   * a numeric character reference. This is the default.
+   */
+  public static final int TO_HTML_NUMERIC_ENTITIES = 0x00000000;
+
+  /**
+   * Option for {@link #toHtml(Spanned, int)}: Output non-ASCII characters as they are, escaping
+   * only markup characters and control characters.
+   */
+  public static final int TO_HTML_RAW_UNICODE = 0x00000001;
+
   private EnrichedParser() {}
 
   /**
@@ -78,34 +92,112 @@ public class EnrichedParser {
    * want this).
    *
    * <p>This uses TagSoup to handle real HTML, including all of the brokenness found in the wild.
+   *
+   * <p>This method is thread-safe, all parse state is kept per call. It can be used to parse large
+   * documents off the main thread.
    */
   public static Spanned fromHtml(String source, HtmlStyle style, ImageGetter imageGetter) {
-    Parser parser = new Parser();
-    try {
-      parser.setProperty(Parser.schemaProperty, HtmlParser.schema);
-    } catch (SAXNotRecognizedException | SAXNotSupportedException e) {
-      // Should not happen.
-      throw new RuntimeException(e);
+    // Markup produced by toHtml is handled by a dedicated tokenizer, TagSoup is used for the rest.
+    Spanned spanned = new HtmlToSpannedConverter(source, style, imageGetter).convertCanonical();
+    if (spanned != null) {
+      return spanned;
+    }
+
+    // TagSoup registers unknown elements (e.g. codeblock, mention) in the shared schema.
+    synchronized (HtmlParser.schema) {
+      Parser parser = new Parser();
+      try {
+        parser.setProperty(Parser.schemaProperty, HtmlParser.schema);
+      } catch (SAXNotRecognizedException | SAXNotSupportedException e) {
+        // Should not happen.
+        throw new RuntimeException(e);
+      }
+      HtmlToSpannedConverter converter = new HtmlToSpannedConverter(source, style, imageGetter);
+      return converter.convert(parser);
     }
-    HtmlToSpannedConverter converter =
-        new HtmlToSpannedConverter(source, style, imageGetter, parser);
-    return converter.convert();
+  }
+
+  /**
+   * Same as {@link #fromHtml(String, HtmlStyle, ImageGetter)}, but markup produced by {@link
+   * #toHtml} that is at least parallelThreshold characters long is split between top-level blocks
+   * and the parts are parsed in parallel. The result is the same as with the sequential parser. The
+   * calling thread is blocked until all parts are parsed, so this should not be called on the main
+   * thread.
+   */
+  public static Spanned fromHtml(
+      String source, HtmlStyle style, ImageGetter imageGetter, int parallelThreshold) {
+    if (source.length() >= parallelThreshold) {
+      Spanned spanned =
+          EnrichedChunkedParser.parse(
+              source,
+              style,
+              imageGetter,
+              EnrichedExecutors.parserParallelism + 1,
+              EnrichedExecutors.parser);
+      if (spanned != null) {
+        return spanned;
+      }
+    }
+
+    return fromHtml(source, style, imageGetter);
   }
 
   public static String toHtml(Spanned text) {
+    return toHtml(text, TO_HTML_NUMERIC_ENTITIES);
+  }
+
+  /**
+   * Returns an HTML representation of the provided Spanned text.
+   *
+   * @param option One of {@link #TO_HTML_NUMERIC_ENTITIES} or {@link #TO_HTML_RAW_UNICODE}
+   */
+  public static String toHtml(Spanned text, int option) {
+    return toHtml(text, null, option);
+  }
+
+  /**
+   * Same as {@link #toHtml(Spanned)}, but reuses HTML of paragraphs that have not changed since the
+   * previous call with the same cache.
+   */
+  public static String toHtml(Spanned text, HtmlParagraphCache cache) {
+    return toHtml(text, cache, TO_HTML_NUMERIC_ENTITIES);
+  }
+
+  /**
+   * Same as {@link #toHtml(Spanned, int)}, but reuses HTML of paragraphs that have not changed
+   * since the previous call with the same cache. The cache must always be used with the same
+   * option.
+   */
+  public static String toHtml(Spanned text, HtmlParagraphCache cache, int option) {
     StringBuilder out = new StringBuilder();
-    withinHtml(out, text);
-    String outString = out.toString();
-    // Codeblocks and blockquotes appends a newline character by default, so we have to remove it
-    String normalizedCodeBlock = outString.replaceAll("</codeblock>\\n<br>", "</codeblock>");
-    String normalizedBlockQuote =
-        normalizedCodeBlock.replaceAll("</blockquote>\\n<br>", "</blockquote>");
-    return "<html>\n" + normalizedBlockQuote + "</html>";
+    try {
+      toHtml(text, cache, option, out);
+    } catch (IOException e) {
+      // StringBuilder doesn't throw.
+      throw new RuntimeException(e);
+    }
+    return out.toString();
+  }
+
+  /**
+   * Writes the HTML representation of the given text to the provided Appendable in a single pass.
+   * The cache is optional, see {@link #toHtml(Spanned, HtmlParagraphCache, int)}.
+   */
+  public static void toHtml(Spanned text, HtmlParagraphCache cache, int option, Appendable out)
+      throws IOException {
+    HtmlWriter writer = new HtmlWriter(out);
+    writer.append("<html>\n");
+    withinHtml(writer, text, cache, option);
+    writer.append("</html>");
   }
 
   public static String toHtmlWithDefault(CharSequence text) {
+    return toHtmlWithDefault(text, TO_HTML_NUMERIC_ENTITIES);
+  }
+
+  public static String toHtmlWithDefault(CharSequence text, int option) {
     if (text instanceof Spanned) {
-      return toHtml((Spanned) text);
+      return toHtml((Spanned) text, option);
     }
     return "<html>\n<p></p>\n</html>";
   }
@@ -113,15 +205,97 @@ public class EnrichedParser {
   /** Returns an HTML escaped representation of the given plain text. */
   public static String escapeHtml(CharSequence text) {
     StringBuilder out = new StringBuilder();
-    withinStyle(out, text, 0, text.length());
+    try {
+      withinStyle(out, text, 0, text.length(), TO_HTML_NUMERIC_ENTITIES);
+    } catch (IOException e) {
+      // StringBuilder doesn't throw.
+      throw new RuntimeException(e);
+    }
     return out.toString();
   }
 
-  private static void withinHtml(StringBuilder out, Spanned text) {
-    withinDiv(out, text, 0, text.length());
+  /**
+   * Holds back the last empty paragraph break, so that it can still be dropped when a block starts
+   * right after it. A break that directly follows a closed codeblock or blockquote is skipped, as
+   * these already end with a newline.
+   */
+  private static class HtmlWriter implements Appendable {
+    private final Appendable mOut;
+    private boolean mHasPendingBreak = false;
+    private boolean mIsAfterBlockEnd = false;
+
+    HtmlWriter(Appendable out) {
+      mOut = out;
+    }
+
+    void appendBreak() throws IOException {
+      flushBreak();
+      mHasPendingBreak = true;
+    }
+
+    void dropPendingBreak() {
+      mHasPendingBreak = false;
+    }
+
+    void appendBlockEnd(String tag) throws IOException {
+      append("</").append(tag).append(">\n");
+      mIsAfterBlockEnd = true;
+    }
+
+    @Override
+    public HtmlWriter append(CharSequence csq) throws IOException {
+      flush();
+      mOut.append(csq);
+      return this;
+    }
+
+    @Override
+    public HtmlWriter append(CharSequence csq, int start, int end) throws IOException {
+      flush();
+      mOut.append(csq, start, end);
+      return this;
+    }
+
+    @Override
+    public HtmlWriter append(char c) throws IOException {
+      flush();
+      mOut.append(c);
+      return this;
+    }
+
+    private void flush() throws IOException {
+      flushBreak();
+      mIsAfterBlockEnd = false;
+    }
+
+    private void flushBreak() throws IOException {
+      if (!mHasPendingBreak) {
+        return;
+      }
+      mHasPendingBreak = false;
+
+      if (mIsAfterBlockEnd) {
+        mIsAfterBlockEnd = false;
+      } else {
+        mOut.append("<br>\n");
+      }
+    }
+  }
+
+  private static void withinHtml(
+      HtmlWriter out, Spanned text, HtmlParagraphCache cache, int option) throws IOException {
+    if (cache != null) {
+      cache.beginPass();
+    }
+    withinDiv(out, text, 0, text.length(), cache, option);
+    if (cache != null) {
+      cache.endPass();
+    }
   }
 
-  private static void withinDiv(StringBuilder out, Spanned text, int start, int end) {
+  private static void withinDiv(
+      HtmlWriter out, Spanned text, int start, int end, HtmlParagraphCache cache, int option)
+      throws IOException {
     int next;
     for (int i = start; i < end; i = next) {
       next = text.nextSpanTransition(i, end, EnrichedBlockSpan.class);
@@ -133,16 +307,14 @@ public class EnrichedParser {
 
       // Each block appends a newline by default.
       // If we set up a new block, we have to remove the last  character.
-      if (out.length() >= 5 && out.substring(out.length() - 5).equals("<br>\n")) {
-        out.replace(out.length() - 5, out.length(), "");
-      }
+      out.dropPendingBreak();
 
       for (EnrichedBlockSpan ignored : blocks) {
         out.append("<").append(tag).append(">\n");
       }
-      withinBlock(out, text, i, next);
+      withinBlock(out, text, i, next, cache, option);
       for (EnrichedBlockSpan ignored : blocks) {
-        out.append("</").append(tag).append(">\n");
+        out.appendBlockEnd(tag);
       }
     }
   }
@@ -165,14 +337,21 @@ public class EnrichedParser {
     return "p";
   }
 
-  private static void withinBlock(StringBuilder out, Spanned text, int start, int end) {
+  private static void withinBlock(
+      HtmlWriter out, Spanned text, int start, int end, HtmlParagraphCache cache, int option)
+      throws IOException {
     boolean isInUlList = false;
     boolean isInOlList = false;
     int next;
     for (int i = start; i <= end; i = next) {
-      next = TextUtils.indexOf(text, '\n', i, end);
-      if (next < 0) {
-        next = end;
+      HtmlParagraphCache.Entry cached = cache != null ? cache.find(text, i, end) : null;
+      if (cached != null) {
+        next = cached.getEnd();
+      } else {
+        next = TextUtils.indexOf(text, '\n', i, end);
+        if (next < 0) {
+          next = end;
+        }
       }
       if (next == i) {
         if (isInUlList) {
@@ -184,11 +363,22 @@ public class EnrichedParser {
           isInOlList = false;
           out.append("</ol>\n");
         }
-        out.append("<br>\n");
+        out.appendBreak();
       } else {
-        EnrichedParagraphSpan[] paragraphStyles =
-            text.getSpans(i, next, EnrichedParagraphSpan.class);
-        String tag = getBlockTag(paragraphStyles);
+        String tag;
+        if (cached != null) {
+          tag = cached.getTag();
+        } else {
+          tag = getBlockTag(text.getSpans(i, next, EnrichedParagraphSpan.class));
+          if (cache != null) {
+            StringBuilder paragraph = new StringBuilder();
+            withinParagraph(paragraph, text, i, next, option);
+            cached = new HtmlParagraphCache.Entry(i, next, tag, paragraph.toString());
+          }
+        }
+        if (cached != null) {
+          cache.store(cached);
+        }
         boolean isUlListItem = tag.equals("ul");
         boolean isOlListItem = tag.equals("ol");
 
@@ -219,7 +409,11 @@ public class EnrichedParser {
         out.append(tagType);
 
         out.append(">");
-        withinParagraph(out, text, i, next);
+        if (cached != null) {
+          out.append(cached.getHtml());
+        } else {
+          withinParagraph(out, text, i, next, option);
+        }
         out.append("</");
         out.append(tagType);
         out.append(">\n");
@@ -235,7 +429,8 @@ public class EnrichedParser {
     }
   }
 
-  private static void withinParagraph(StringBuilder out, Spanned text, int start, int end) {
+  private static void withinParagraph(
+      Appendable out, Spanned text, int start, int end, int option) throws IOException {
     int next;
     for (int i = start; i < end; i = next) {
       next = text.nextSpanTransition(i, end, EnrichedInlineSpan.class);
@@ -287,18 +482,18 @@ public class EnrichedParser {
           out.append("\"");
 
           out.append(" width=\"");
-          out.append(((EnrichedImageSpan) style[j]).getWidth());
+          out.append(String.valueOf(((EnrichedImageSpan) style[j]).getWidth()));
           out.append("\"");
 
           out.append(" height=\"");
-          out.append(((EnrichedImageSpan) style[j]).getHeight());
+          out.append(String.valueOf(((EnrichedImageSpan) style[j]).getHeight()));
 
           out.append("\"/>");
           // Don't output the placeholder character underlying the image.
           i = next;
         }
       }
-      withinStyle(out, text, i, next);
+      withinStyle(out, text, i, next, option);
       for (int j = style.length - 1; j >= 0; j--) {
         if (style[j] instanceof EnrichedLinkSpan) {
           out.append("</a>");
@@ -325,7 +520,10 @@ public class EnrichedParser {
     }
   }
 
-  private static void withinStyle(StringBuilder out, CharSequence text, int start, int end) {
+  private static void withinStyle(
+      Appendable out, CharSequence text, int start, int end, int option) throws IOException {
+    boolean isRawUnicode = (option & TO_HTML_RAW_UNICODE) != 0;
+
     for (int i = start; i < end; i++) {
       char c = text.charAt(i);
       if (c == '\u200B') {
@@ -342,12 +540,20 @@ public class EnrichedParser {
           char d = text.charAt(i + 1);
           if (d >= 0xDC00 && d <= 0xDFFF) {
             i++;
-            int codepoint = 0x010000 | (int) c - 0xD800 << 10 | (int) d - 0xDC00;
-            out.append("&#").append(codepoint).append(";");
+            if (isRawUnicode) {
+              out.append(c).append(d);
+            } else {
+              int codepoint = 0x010000 | (int) c - 0xD800 << 10 | (int) d - 0xDC00;
+              out.append("&#").append(String.valueOf(codepoint)).append(";");
+            }
           }
         }
+      } else if (isRawUnicode && c == '"') {
+        out.append("&quot;");
+      } else if (isRawUnicode && c > 0x9F) {
+        out.append(c);
       } else if (c > 0x7E || c < ' ') {
-        out.append("&#").append((int) c).append(";");
+        out.append("&#").append(String.valueOf((int) c)).append(";");
       } else if (c == ' ') {
         while (i + 1 < end && text.charAt(i + 1) == ' ') {
           out.append("&nbsp;");
@@ -364,26 +570,26 @@ public class EnrichedParser {
 class HtmlToSpannedConverter implements ContentHandler {
   private final HtmlStyle mStyle;
   private final String mSource;
-  private final XMLReader mReader;
   private final SpannableStringBuilder mSpannableStringBuilder;
   private final EnrichedParser.ImageGetter mImageGetter;
-  private static Integer currentOrderedListItemIndex = 0;
-  private static Boolean isInOrderedList = false;
-  private static Boolean isEmptyTag = false;
+  // Elements that are still open, innermost last.
+  private final ArrayList<Mark> mOpenMarks = new ArrayList<>();
+  private int mCurrentOrderedListItemIndex = 0;
+  private boolean mIsInOrderedList = false;
+  private boolean mIsEmptyTag = false;
 
   public HtmlToSpannedConverter(
-      String source, HtmlStyle style, EnrichedParser.ImageGetter imageGetter, Parser parser) {
+      String source, HtmlStyle style, EnrichedParser.ImageGetter imageGetter) {
     mStyle = style;
     mSource = source;
     mSpannableStringBuilder = new SpannableStringBuilder();
     mImageGetter = imageGetter;
-    mReader = parser;
   }
 
-  public Spanned convert() {
-    mReader.setContentHandler(this);
+  public Spanned convert(XMLReader reader) {
+    reader.setContentHandler(this);
     try {
-      mReader.parse(new InputSource(new StringReader(mSource)));
+      reader.parse(new InputSource(new StringReader(mSource)));
     } catch (IOException e) {
       // We are reading from a string. There should not be IO problems.
       throw new RuntimeException(e);
@@ -391,6 +597,30 @@ class HtmlToSpannedConverter implements ContentHandler {
       // TagSoup doesn't throw parse exceptions.
       throw new RuntimeException(e);
     }
+    return finish();
+  }
+
+  /**
+   * Converts markup produced by {@link EnrichedParser#toHtml} without going through TagSoup.
+   * Returns null if the source uses anything outside of that schema.
+   */
+  public Spanned convertCanonical() {
+    return convertCanonical(false);
+  }
+
+  Spanned convertCanonical(boolean isBodyStarted) {
+    try {
+      new EnrichedHtmlTokenizer(mSource, this, isBodyStarted).tokenize();
+    } catch (EnrichedHtmlTokenizer.UnsupportedHtmlException e) {
+      return null;
+    } catch (SAXException e) {
+      // Our handler doesn't throw SAX exceptions.
+      throw new RuntimeException(e);
+    }
+    return finish();
+  }
+
+  private Spanned finish() {
     // Fix flags and range for paragraph-type markup.
     Object[] obj =
         mSpannableStringBuilder.getSpans(0, mSpannableStringBuilder.length(), ParagraphStyle.class);
@@ -414,26 +644,92 @@ class HtmlToSpannedConverter implements ContentHandler {
       }
     }
 
-    // Assign zero-width space character to the proper spans.
+    return insertZeroWidthSpaces(mSpannableStringBuilder);
+  }
+
+  /**
+   * Prefixes every zero-width space span with a ZWSP character, unless one is already there. All
+   * characters are inserted while copying the text once, so the cost doesn't depend on how many
+   * spans need one.
+   */
+  private static Spanned insertZeroWidthSpaces(SpannableStringBuilder text) {
+    int length = text.length();
     EnrichedZeroWidthSpaceSpan[] zeroWidthSpaceSpans =
-        mSpannableStringBuilder.getSpans(
-            0, mSpannableStringBuilder.length(), EnrichedZeroWidthSpaceSpan.class);
+        text.getSpans(0, length, EnrichedZeroWidthSpaceSpan.class);
+
+    int[] insertions = new int[zeroWidthSpaceSpans.length];
+    int count = 0;
     for (EnrichedZeroWidthSpaceSpan zeroWidthSpaceSpan : zeroWidthSpaceSpans) {
-      int start = mSpannableStringBuilder.getSpanStart(zeroWidthSpaceSpan);
-      int end = mSpannableStringBuilder.getSpanEnd(zeroWidthSpaceSpan);
+      int start = text.getSpanStart(zeroWidthSpaceSpan);
+      if (start >= length || text.charAt(start) != '\u200B') {
+        insertions[count++] = start;
+      }
+    }
+    if (count == 0) {
+      return text;
+    }
 
-      if (mSpannableStringBuilder.charAt(start) != '\u200B') {
-        // Insert zero-width space character at the start if it's not already present.
-        mSpannableStringBuilder.insert(start, "\u200B");
-        end++; // Adjust end position due to insertion.
+    // Spans sharing a start share a single zero-width space.
+    Arrays.sort(insertions, 0, count);
+    int unique = 1;
+    for (int i = 1; i < count; i++) {
+      if (insertions[i] != insertions[unique - 1]) {
+        insertions[unique++] = insertions[i];
       }
+    }
+    count = unique;
 
-      mSpannableStringBuilder.removeSpan(zeroWidthSpaceSpan);
-      mSpannableStringBuilder.setSpan(
-          zeroWidthSpaceSpan, start, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+    StringBuilder builder = new StringBuilder(length + count);
+    int copied = 0;
+    for (int i = 0; i < count; i++) {
+      builder.append(text, copied, insertions[i]).append('\u200B');
+      copied = insertions[i];
+    }
+    builder.append(text, copied, length);
+
+    SpannableStringBuilder result = new SpannableStringBuilder(builder);
+    Object[] spans = text.getSpans(0, length, Object.class);
+    for (Object span : spans) {
+      if (span instanceof EnrichedZeroWidthSpaceSpan) continue;
+
+      // Mirrors SpannableStringBuilder#insert: point boundaries are pushed past the inserted text.
+      // SPAN_PARAGRAPH sets both bits of each side, so it matches neither of the point flags.
+      int flags = text.getSpanFlags(span);
+      int pointMark = flags & Spanned.SPAN_POINT_MARK_MASK;
+      boolean isStartPoint =
+          pointMark == Spanned.SPAN_POINT_MARK || pointMark == Spanned.SPAN_POINT_POINT;
+      boolean isEndPoint =
+          pointMark == Spanned.SPAN_MARK_POINT || pointMark == Spanned.SPAN_POINT_POINT;
+      int start = shiftOffset(text.getSpanStart(span), insertions, count, isStartPoint);
+      int end = shiftOffset(text.getSpanEnd(span), insertions, count, isEndPoint);
+      result.setSpan(span, start, Math.max(start, end), flags);
+    }
+
+    for (EnrichedZeroWidthSpaceSpan zeroWidthSpaceSpan : zeroWidthSpaceSpans) {
+      int start = text.getSpanStart(zeroWidthSpaceSpan);
+      int end = text.getSpanEnd(zeroWidthSpaceSpan);
+      // The span starts before its zero-width space; an empty span grows to cover it.
+      int newStart = shiftOffset(start, insertions, count, false);
+      int newEnd = shiftOffset(end, insertions, count, start == end);
+      result.setSpan(zeroWidthSpaceSpan, newStart, newEnd, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
     }
 
-    return mSpannableStringBuilder;
+    return result;
+  }
+
+  // Maps an offset in the original text to the text with zero-width spaces inserted.
+  private static int shiftOffset(int offset, int[] insertions, int count, boolean afterInsertion) {
+    int low = 0;
+    int high = count;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (insertions[mid] < offset || (afterInsertion && insertions[mid] == offset)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return offset + low;
   }
 
   private void handleStartTag(String tag, Attributes attributes) {
@@ -441,27 +737,27 @@ class HtmlToSpannedConverter implements ContentHandler {
       // We don't need to handle this. TagSoup will ensure that there's a </br> for each <br>
       // so we can safely emit the linebreaks when we handle the close tag.
     } else if (tag.equalsIgnoreCase("p")) {
-      isEmptyTag = true;
+      mIsEmptyTag = true;
       startBlockElement(mSpannableStringBuilder);
     } else if (tag.equalsIgnoreCase("ul")) {
-      isInOrderedList = false;
+      mIsInOrderedList = false;
       startBlockElement(mSpannableStringBuilder);
     } else if (tag.equalsIgnoreCase("ol")) {
-      isInOrderedList = true;
-      currentOrderedListItemIndex = 0;
+      mIsInOrderedList = true;
+      mCurrentOrderedListItemIndex = 0;
       startBlockElement(mSpannableStringBuilder);
     } else if (tag.equalsIgnoreCase("li")) {
-      isEmptyTag = true;
+      mIsEmptyTag = true;
       startLi(mSpannableStringBuilder);
     } else if (tag.equalsIgnoreCase("b")) {
       start(mSpannableStringBuilder, new Bold());
     } else if (tag.equalsIgnoreCase("i")) {
       start(mSpannableStringBuilder, new Italic());
     } else if (tag.equalsIgnoreCase("blockquote")) {
-      isEmptyTag = true;
+      mIsEmptyTag = true;
       startBlockquote(mSpannableStringBuilder);
     } else if (tag.equalsIgnoreCase("codeblock")) {
-      isEmptyTag = true;
+      mIsEmptyTag = true;
       startCodeBlock(mSpannableStringBuilder);
     } else if (tag.equalsIgnoreCase("a")) {
       startA(mSpannableStringBuilder, attributes);
@@ -536,18 +832,18 @@ class HtmlToSpannedConverter implements ContentHandler {
     }
   }
 
-  private static void startBlockElement(Editable text) {
+  private void startBlockElement(Editable text) {
     appendNewlines(text, 1);
     start(text, new Newline(1));
   }
 
-  private static void endBlockElement(Editable text) {
-    Newline n = getLast(text, Newline.class);
+  private void endBlockElement(Editable text) {
+    Newline n = getLast(Newline.class);
     if (n != null) {
       appendNewlines(text, n.mNumNewlines);
-      text.removeSpan(n);
+      removeMark(n);
     }
-    Alignment a = getLast(text, Alignment.class);
+    Alignment a = getLast(Alignment.class);
     if (a != null) {
       setSpanFromMark(text, a, new AlignmentSpan.Standard(a.mAlignment));
     }
@@ -560,18 +856,18 @@ class HtmlToSpannedConverter implements ContentHandler {
   private void startLi(Editable text) {
     startBlockElement(text);
 
-    if (isInOrderedList) {
-      currentOrderedListItemIndex++;
-      start(text, new List("ol", currentOrderedListItemIndex));
+    if (mIsInOrderedList) {
+      mCurrentOrderedListItemIndex++;
+      start(text, new List("ol", mCurrentOrderedListItemIndex));
     } else {
       start(text, new List("ul", 0));
     }
   }
 
-  private static void endLi(Editable text, HtmlStyle style) {
+  private void endLi(Editable text, HtmlStyle style) {
     endBlockElement(text);
 
-    List l = getLast(text, List.class);
+    List l = getLast(List.class);
     if (l != null) {
       if (l.mType.equals("ol")) {
         setParagraphSpanFromMark(text, l, new EnrichedOrderedListSpan(l.mIndex, style));
@@ -588,9 +884,9 @@ class HtmlToSpannedConverter implements ContentHandler {
     start(text, new Blockquote());
   }
 
-  private static void endBlockquote(Editable text, HtmlStyle style) {
+  private void endBlockquote(Editable text, HtmlStyle style) {
     endBlockElement(text);
-    Blockquote last = getLast(text, Blockquote.class);
+    Blockquote last = getLast(Blockquote.class);
     setParagraphSpanFromMark(text, last, new EnrichedBlockQuoteSpan(style));
   }
 
@@ -599,9 +895,9 @@ class HtmlToSpannedConverter implements ContentHandler {
     start(text, new CodeBlock());
   }
 
-  private static void endCodeBlock(Editable text, HtmlStyle style) {
+  private void endCodeBlock(Editable text, HtmlStyle style) {
     endBlockElement(text);
-    CodeBlock last = getLast(text, CodeBlock.class);
+    CodeBlock last = getLast(CodeBlock.class);
     setParagraphSpanFromMark(text, last, new EnrichedCodeBlockSpan(style));
   }
 
@@ -623,20 +919,20 @@ class HtmlToSpannedConverter implements ContentHandler {
     }
   }
 
-  private static void endHeading(Editable text, HtmlStyle style, int level) {
+  private void endHeading(Editable text, HtmlStyle style, int level) {
     endBlockElement(text);
 
     switch (level) {
       case 1:
-        H1 lastH1 = getLast(text, H1.class);
+        H1 lastH1 = getLast(H1.class);
         setParagraphSpanFromMark(text, lastH1, new EnrichedH1Span(style));
         break;
       case 2:
-        H2 lastH2 = getLast(text, H2.class);
+        H2 lastH2 = getLast(H2.class);
         setParagraphSpanFromMark(text, lastH2, new EnrichedH2Span(style));
         break;
       case 3:
-        H3 lastH3 = getLast(text, H3.class);
+        H3 lastH3 = getLast(H3.class);
         setParagraphSpanFromMark(text, lastH3, new EnrichedH3Span(style));
         break;
       default:
@@ -644,22 +940,28 @@ class HtmlToSpannedConverter implements ContentHandler {
     }
   }
 
-  private static <T> T getLast(Spanned text, Class<T> kind) {
-    /*
-     * This knows that the last returned object from getSpans()
-     * will be the most recently added.
-     */
-    T[] objs = text.getSpans(0, text.length(), kind);
-    if (objs.length == 0) {
-      return null;
-    } else {
-      return objs[objs.length - 1];
+  private <T extends Mark> T getLast(Class<T> kind) {
+    for (int i = mOpenMarks.size() - 1; i >= 0; i--) {
+      Mark mark = mOpenMarks.get(i);
+      if (kind.isInstance(mark)) {
+        return kind.cast(mark);
+      }
+    }
+    return null;
+  }
+
+  private void removeMark(Mark mark) {
+    for (int i = mOpenMarks.size() - 1; i >= 0; i--) {
+      if (mOpenMarks.get(i) == mark) {
+        mOpenMarks.remove(i);
+        return;
+      }
     }
   }
 
-  private static void setSpanFromMark(Spannable text, Object mark, Object... spans) {
-    int where = text.getSpanStart(mark);
-    text.removeSpan(mark);
+  private void setSpanFromMark(Spannable text, Mark mark, Object... spans) {
+    int where = mark.mWhere;
+    removeMark(mark);
     int len = text.length();
     if (where != len) {
       for (Object span : spans) {
@@ -668,13 +970,17 @@ class HtmlToSpannedConverter implements ContentHandler {
     }
   }
 
-  private static void setParagraphSpanFromMark(Editable text, Object mark, Object... spans) {
-    int where = text.getSpanStart(mark);
-    text.removeSpan(mark);
+  private void setParagraphSpanFromMark(Editable text, Mark mark, Object... spans) {
+    if (mark == null) {
+      return;
+    }
+
+    int where = mark.mWhere;
+    removeMark(mark);
     int len = text.length();
 
     // Block spans require at least one character to be applied.
-    if (isEmptyTag) {
+    if (mIsEmptyTag) {
       text.append("\u200B");
       len++;
     }
@@ -691,13 +997,13 @@ class HtmlToSpannedConverter implements ContentHandler {
     }
   }
 
-  private static void start(Editable text, Object mark) {
-    int len = text.length();
-    text.setSpan(mark, len, len, Spannable.SPAN_INCLUSIVE_EXCLUSIVE);
+  private void start(Editable text, Mark mark) {
+    mark.mWhere = text.length();
+    mOpenMarks.add(mark);
   }
 
-  private static void end(Editable text, Class kind, Object repl) {
-    Object obj = getLast(text, kind);
+  private void end(Editable text, Class<? extends Mark> kind, Object repl) {
+    Mark obj = getLast(kind);
     if (obj != null) {
       setSpanFromMark(text, obj, repl);
     }
@@ -717,13 +1023,13 @@ class HtmlToSpannedConverter implements ContentHandler {
     text.setSpan(span, len, text.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
   }
 
-  private static void startA(Editable text, Attributes attributes) {
+  private void startA(Editable text, Attributes attributes) {
     String href = attributes.getValue("", "href");
     start(text, new Href(href));
   }
 
   private void endA(Editable text, HtmlStyle style) {
-    Href h = getLast(text, Href.class);
+    Href h = getLast(Href.class);
     if (h != null) {
       if (h.mHref != null) {
         setSpanFromMark(text, h, new EnrichedLinkSpan(h.mHref, style));
@@ -731,7 +1037,7 @@ class HtmlToSpannedConverter implements ContentHandler {
     }
   }
 
-  private static void startMention(Editable mention, Attributes attributes) {
+  private void startMention(Editable mention, Attributes attributes) {
     String text = attributes.getValue("", "text");
     String indicator = attributes.getValue("", "indicator");
 
@@ -748,7 +1054,7 @@ class HtmlToSpannedConverter implements ContentHandler {
   }
 
   private void endMention(Editable text, HtmlStyle style) {
-    Mention m = getLast(text, Mention.class);
+    Mention m = getLast(Mention.class);
 
     if (m == null) return;
     if (m.mText == null) return;
@@ -776,7 +1082,7 @@ class HtmlToSpannedConverter implements ContentHandler {
 
   public void characters(char[] ch, int start, int length) {
     StringBuilder sb = new StringBuilder();
-    if (length > 0) isEmptyTag = false;
+    if (length > 0) mIsEmptyTag = false;
 
     /*
      * Ignore whitespace that immediately follows other whitespace;
@@ -813,27 +1119,33 @@ class HtmlToSpannedConverter implements ContentHandler {
 
   public void skippedEntity(String name) {}
 
-  private static class H1 {}
+  private abstract static class Mark {
+    // Offset at which the element was opened. Text is only appended while parsing, so it never
+    // shifts.
+    int mWhere;
+  }
+
+  private static class H1 extends Mark {}
 
-  private static class H2 {}
+  private static class H2 extends Mark {}
 
-  private static class H3 {}
+  private static class H3 extends Mark {}
 
-  private static class Bold {}
+  private static class Bold extends Mark {}
 
-  private static class Italic {}
+  private static class Italic extends Mark {}
 
-  private static class Underline {}
+  private static class Underline extends Mark {}
 
-  private static class Code {}
+  private static class Code extends Mark {}
 
-  private static class CodeBlock {}
+  private static class CodeBlock extends Mark {}
 
-  private static class Strikethrough {}
+  private static class Strikethrough extends Mark {}
 
-  private static class Blockquote {}
+  private static class Blockquote extends Mark {}
 
-  private static class List {
+  private static class List extends Mark {
     public int mIndex;
     public String mType;
 
@@ -843,7 +1155,7 @@ class HtmlToSpannedConverter implements ContentHandler {
     }
   }
 
-  private static class Mention {
+  private static class Mention extends Mark {
     public Map<String, String> mAttributes;
     public String mIndicator;
     public String mText;
@@ -855,7 +1167,7 @@ class HtmlToSpannedConverter implements ContentHandler {
     }
   }
 
-  private static class Href {
+  private static class Href extends Mark {
     public String mHref;
 
     public Href(String href) {
@@ -863,7 +1175,7 @@ class HtmlToSpannedConverter implements ContentHandler {
     }
   }
 
-  private static class Newline {
+  private static class Newline extends Mark {
     private final int mNumNewlines;
 
     public Newline(int numNewlines) {
@@ -871,7 +1183,7 @@ class HtmlToSpannedConverter implements ContentHandler {
     }
   }
 
-  private static class Alignment {
+  private static class Alignment extends Mark {
     private final Layout.Alignment mAlignment;
 
     public Alignment(Layout.Alignment alignment) {
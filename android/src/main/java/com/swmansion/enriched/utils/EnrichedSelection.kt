@@ -11,6 +11,7 @@ import com.swmansion.enriched.events.OnMentionDetectedEvent
 import com.swmansion.enriched.spans.EnrichedLinkSpan
 import com.swmansion.enriched.spans.EnrichedMentionSpan
 import com.swmansion.enriched.spans.EnrichedSpans
+import com.swmansion.enriched.spans.interfaces.EnrichedSpan
 import org.json.JSONObject
 
 class EnrichedSelection(
@@ -19,6 +20,8 @@ class EnrichedSelection(
   var start: Int = 0
   var end: Int = 0
 
+  private val stylesByClass: Map<Class<*>, String> = EnrichedSpans.allSpans.entries.associate { it.value.clazz to it.key }
+
   private var previousLinkDetectedEvent: MutableMap<String, String> = mutableMapOf("text" to "", "url" to "")
   private var previousMentionDetectedEvent: MutableMap<String, String> = mutableMapOf("text" to "", "payload" to "")
 
@@ -80,28 +83,136 @@ class EnrichedSelection(
 
   fun validateStyles() {
     val state = view.spanState ?: return
+    val spannable = view.text as Spannable
+    val (inlineStart, inlineEnd) = getInlineSelection()
+    val (paragraphStart, paragraphEnd) = view.paragraphIndex.getParagraphBounds(spannable, inlineStart, inlineEnd)
+
+    // All styles are resolved from a single query, widened by one character so that it also returns spans
+    // that only touch the paragraph bounds, which a query for the bounds themselves would skip
+    val queryStart = (paragraphStart - 1).coerceAtLeast(0)
+    val queryEnd = (paragraphEnd + 1).coerceAtMost(spannable.length)
+    val spans = spannable.getSpans(queryStart, queryEnd, EnrichedSpan::class.java)
+
+    val starts = HashMap<String, Int>()
+    val resolvedStyles = HashSet<String>()
+    val intersectingStyles = HashSet<String>()
+    val parametrizedSpans = HashMap<String, EnrichedSpan>()
+    val listSpanBounds = HashMap<String, HashSet<Long>>()
+
+    for (span in spans) {
+      val style = stylesByClass[span.javaClass] ?: continue
+      val spanStart = spannable.getSpanStart(span)
+      val spanEnd = spannable.getSpanEnd(span)
+
+      when (style) {
+        in EnrichedSpans.inlineSpans -> {
+          if (!intersects(spanStart, spanEnd, inlineStart, inlineEnd)) continue
+
+          if (inlineStart == inlineEnd && inlineStart == spanStart) {
+            starts.remove(style)
+          } else if (inlineStart >= spanStart && inlineEnd <= spanEnd) {
+            starts[style] = spanStart
+          }
+        }
+
+        in EnrichedSpans.paragraphSpans -> {
+          if (style in resolvedStyles || !intersects(spanStart, spanEnd, paragraphStart, paragraphEnd)) continue
+
+          if (paragraphStart >= spanStart && paragraphEnd <= spanEnd) {
+            starts[style] = spanStart
+            resolvedStyles.add(style)
+          }
+        }
+
+        in EnrichedSpans.listSpans -> {
+          if (spanStart < paragraphStart || spanEnd > paragraphEnd) continue
+
+          listSpanBounds.getOrPut(style) { HashSet() }.add(packBounds(spanStart, spanEnd))
+        }
+
+        in EnrichedSpans.parametrizedStyles -> {
+          if (!intersects(spanStart, spanEnd, inlineStart, inlineEnd)) continue
+
+          intersectingStyles.add(style)
+          if (style !in resolvedStyles && inlineStart >= spanStart && inlineEnd <= spanEnd) {
+            starts[style] = spanStart
+            parametrizedSpans[style] = span
+            resolvedStyles.add(style)
+          }
+        }
+      }
+    }
+
+    // List styles are applied only if every selected paragraph is fully covered by a span of that style
+    val matchingListStyles = listSpanBounds.keys.toMutableSet()
+    var currentParagraphStart = paragraphStart
+    var lastParagraphStart = paragraphStart
+    while (matchingListStyles.isNotEmpty()) {
+      var currentParagraphEnd = currentParagraphStart
+      while (currentParagraphEnd < paragraphEnd && spannable[currentParagraphEnd] != '\n') {
+        currentParagraphEnd++
+      }
 
+      val bounds = packBounds(currentParagraphStart, currentParagraphEnd)
+      matchingListStyles.removeAll { listSpanBounds[it]?.contains(bounds) != true }
+      lastParagraphStart = currentParagraphStart
+
+      if (currentParagraphEnd >= paragraphEnd) break
+      currentParagraphStart = currentParagraphEnd + 1
+    }
+    for (style in matchingListStyles) {
+      starts[style] = lastParagraphStart
+    }
+
+    // Styles are updated as a single batch, so at most one state event is emitted per selection change
+    state.batch { applyStyleStarts(state, spannable, inlineStart, inlineEnd, starts, parametrizedSpans, intersectingStyles) }
+  }
+
+  private fun applyStyleStarts(
+    state: EnrichedSpanState,
+    spannable: Spannable,
+    inlineStart: Int,
+    inlineEnd: Int,
+    starts: Map<String, Int>,
+    parametrizedSpans: Map<String, EnrichedSpan>,
+    intersectingStyles: Set<String>,
+  ) {
     // We don't validate inline styles when removing many characters at once
     // We don't want to remove styles on auto-correction
     // If user removes many characters at once, we want to keep the styles config
     if (!view.isRemovingMany) {
-      for ((style, config) in EnrichedSpans.inlineSpans) {
-        state.setStart(style, getInlineStyleStart(config.clazz))
+      for (style in EnrichedSpans.inlineSpans.keys) {
+        state.setStart(style, starts[style])
       }
     } else {
       view.isRemovingMany = false
     }
 
-    for ((style, config) in EnrichedSpans.paragraphSpans) {
-      state.setStart(style, getParagraphStyleStart(config.clazz))
+    for (style in EnrichedSpans.paragraphSpans.keys) {
+      state.setStart(style, starts[style])
     }
 
-    for ((style, config) in EnrichedSpans.listSpans) {
-      state.setStart(style, getListStyleStart(config.clazz))
+    for (style in EnrichedSpans.listSpans.keys) {
+      state.setStart(style, starts[style])
     }
 
-    for ((style, config) in EnrichedSpans.parametrizedStyles) {
-      state.setStart(style, getParametrizedStyleStart(config.clazz))
+    for (style in EnrichedSpans.parametrizedStyles.keys) {
+      val span = parametrizedSpans[style]
+      if (style == EnrichedSpans.LINK) {
+        if (span is EnrichedLinkSpan) {
+          emitLinkDetectedEvent(spannable, span, spannable.getSpanStart(span), spannable.getSpanEnd(span))
+        } else if (style !in intersectingStyles) {
+          emitLinkDetectedEvent(spannable, null, inlineStart, inlineEnd)
+        }
+      } else if (style == EnrichedSpans.MENTION) {
+        if (span is EnrichedMentionSpan) {
+          emitMentionDetectedEvent(spannable, span, spannable.getSpanStart(span), spannable.getSpanEnd(span))
+        } else if (style !in intersectingStyles) {
+          emitMentionDetectedEvent(spannable, null, inlineStart, inlineEnd)
+        }
+      }
+
+      state.setStart(style, starts[style])
     }
   }
 
@@ -112,114 +223,28 @@ class EnrichedSelection(
     return Pair(finalStart, finalEnd)
   }
 
-  private fun <T> getInlineStyleStart(type: Class<T>): Int? {
-    val (start, end) = getInlineSelection()
-    val spannable = view.text as Spannable
-    val spans = spannable.getSpans(start, end, type)
-    var styleStart: Int? = null
-
-    for (span in spans) {
-      val spanStart = spannable.getSpanStart(span)
-      val spanEnd = spannable.getSpanEnd(span)
-
-      if (start == end && start == spanStart) {
-        styleStart = null
-      } else if (start >= spanStart && end <= spanEnd) {
-        styleStart = spanStart
-      }
-    }
-
-    return styleStart
-  }
-
   fun getParagraphSelection(): Pair<Int, Int> {
     val (currentStart, currentEnd) = getInlineSelection()
     val spannable = view.text as Spannable
-    return spannable.getParagraphBounds(currentStart, currentEnd)
+    return view.paragraphIndex.getParagraphBounds(spannable, currentStart, currentEnd)
   }
 
-  private fun <T> getParagraphStyleStart(type: Class<T>): Int? {
-    val (start, end) = getParagraphSelection()
-    val spannable = view.text as Spannable
-    val spans = spannable.getSpans(start, end, type)
-    var styleStart: Int? = null
-
-    for (span in spans) {
-      val spanStart = spannable.getSpanStart(span)
-      val spanEnd = spannable.getSpanEnd(span)
-
-      if (start >= spanStart && end <= spanEnd) {
-        styleStart = spanStart
-        break
-      }
-    }
-
-    return styleStart
-  }
-
-  private fun <T> getListStyleStart(type: Class<T>): Int? {
-    val (start, end) = getParagraphSelection()
-    val spannable = view.text as Spannable
-    var styleStart: Int? = null
-
-    var paragraphStart = start
-    val paragraphs = spannable.substring(start, end).split("\n")
-    pi@ for (paragraph in paragraphs) {
-      val paragraphEnd = paragraphStart + paragraph.length
-      val spans = spannable.getSpans(paragraphStart, paragraphEnd, type)
-
-      for (span in spans) {
-        val spanStart = spannable.getSpanStart(span)
-        val spanEnd = spannable.getSpanEnd(span)
-
-        if (spanStart == paragraphStart && spanEnd == paragraphEnd) {
-          styleStart = spanStart
-          paragraphStart = paragraphEnd + 1
-          continue@pi
-        }
-      }
-
-      styleStart = null
-      break
-    }
+  // Same rules as Spanned.getSpans uses to decide if a span belongs to the given range
+  private fun intersects(
+    spanStart: Int,
+    spanEnd: Int,
+    start: Int,
+    end: Int,
+  ): Boolean {
+    if (spanStart > end || spanEnd < start) return false
 
-    return styleStart
+    return spanStart == spanEnd || start == end || (spanStart != end && spanEnd != start)
   }
 
-  private fun <T> getParametrizedStyleStart(type: Class<T>): Int? {
-    val (start, end) = getInlineSelection()
-    val spannable = view.text as Spannable
-    val spans = spannable.getSpans(start, end, type)
-    val isLinkType = type == EnrichedLinkSpan::class.java
-    val isMentionType = type == EnrichedMentionSpan::class.java
-
-    if (isLinkType && spans.isEmpty()) {
-      emitLinkDetectedEvent(spannable, null, start, end)
-      return null
-    }
-
-    if (isMentionType && spans.isEmpty()) {
-      emitMentionDetectedEvent(spannable, null, start, end)
-      return null
-    }
-
-    for (span in spans) {
-      val spanStart = spannable.getSpanStart(span)
-      val spanEnd = spannable.getSpanEnd(span)
-
-      if (start >= spanStart && end <= spanEnd) {
-        if (isLinkType && span is EnrichedLinkSpan) {
-          emitLinkDetectedEvent(spannable, span, spanStart, spanEnd)
-        } else if (isMentionType && span is EnrichedMentionSpan) {
-          emitMentionDetectedEvent(spannable, span, spanStart, spanEnd)
-        }
-
-        return spanStart
-      }
-    }
-
-    return null
-  }
+  private fun packBounds(
+    start: Int,
+    end: Int,
+  ): Long = (start.toLong() shl 32) or end.toLong()
 
   private fun emitSelectionChangeEvent(
     editable: Editable?,
@@ -232,14 +257,15 @@ class EnrichedSelection(
     val surfaceId = UIManagerHelper.getSurfaceId(context)
     val dispatcher = UIManagerHelper.getEventDispatcherForReactTag(context, view.id)
 
-    val text = editable.substring(start, end)
+    // JS works with offsets in the text without zero-width spaces
+    val text = editable.substring(start, end).replace("\u200B", "")
     dispatcher?.dispatchEvent(
       OnChangeSelectionEvent(
         surfaceId,
         view.id,
         text,
-        start,
-        end,
+        view.paragraphIndex.getVisibleOffset(editable, start),
+        view.paragraphIndex.getVisibleOffset(editable, end),
         view.experimentalSynchronousEvents,
       ),
     )
@@ -269,8 +295,8 @@ class EnrichedSelection(
         view.id,
         text,
         url,
-        start,
-        end,
+        view.paragraphIndex.getVisibleOffset(spannable, start),
+        view.paragraphIndex.getVisibleOffset(spannable, end),
         view.experimentalSynchronousEvents,
       ),
     )
@@ -0,0 +1,282 @@
+package com.swmansion.enriched.utils
+
+import android.text.Spannable
+import android.text.SpannableStringBuilder
+import android.text.Spanned
+import com.swmansion.enriched.spans.EnrichedBlockQuoteSpan
+import com.swmansion.enriched.spans.EnrichedBoldSpan
+import com.swmansion.enriched.spans.EnrichedCodeBlockSpan
+import com.swmansion.enriched.spans.EnrichedH1Span
+import com.swmansion.enriched.spans.EnrichedH2Span
+import com.swmansion.enriched.spans.EnrichedH3Span
+import com.swmansion.enriched.spans.EnrichedImageSpan
+import com.swmansion.enriched.spans.EnrichedInlineCodeSpan
+import com.swmansion.enriched.spans.EnrichedItalicSpan
+import com.swmansion.enriched.spans.EnrichedLinkSpan
+import com.swmansion.enriched.spans.EnrichedMentionSpan
+import com.swmansion.enriched.spans.EnrichedOrderedListSpan
+import com.swmansion.enriched.spans.EnrichedStrikeThroughSpan
+import com.swmansion.enriched.spans.EnrichedUnderlineSpan
+import com.swmansion.enriched.spans.EnrichedUnorderedListSpan
+import com.swmansion.enriched.spans.interfaces.EnrichedSpan
+import com.swmansion.enriched.styles.HtmlStyle
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+
+/**
+ * Binary snapshot of a document, much cheaper to write and read than HTML.
+ *
+ * Layout: magic, version, string pool, plain text and the span table. Every span entry holds the
+ * type, start, end and flags, followed by type specific values (pool indices for link urls,
+ * mention fields and image sources). All integers are stored as varints.
+ */
+object EnrichedSnapshotCodec {
+  private const val MAGIC = 0x454E5253 // "ENRS"
+  private const val VERSION = 1
+
+  // Stored in snapshots, new types can only be appended
+  private const val TYPE_BOLD = 0
+  private const val TYPE_ITALIC = 1
+  private const val TYPE_UNDERLINE = 2
+  private const val TYPE_STRIKETHROUGH = 3
+  private const val TYPE_INLINE_CODE = 4
+  private const val TYPE_H1 = 5
+  private const val TYPE_H2 = 6
+  private const val TYPE_H3 = 7
+  private const val TYPE_BLOCK_QUOTE = 8
+  private const val TYPE_CODE_BLOCK = 9
+  private const val TYPE_UNORDERED_LIST = 10
+  private const val TYPE_ORDERED_LIST = 11
+  private const val TYPE_LINK = 12
+  private const val TYPE_IMAGE = 13
+  private const val TYPE_MENTION = 14
+
+  private const val SUPPORTED_FLAGS = Spanned.SPAN_POINT_MARK_MASK or Spanned.SPAN_PRIORITY
+
+  fun encode(text: Spanned): ByteArray {
+    val strings = ArrayList<String>()
+    val stringIndices = HashMap<String, Int>()
+
+    fun pooled(value: String): Int =
+      stringIndices.getOrPut(value) {
+        strings.add(value)
+        strings.size - 1
+      }
+
+    val table = ByteArrayOutputStream()
+    val tableOut = DataOutputStream(table)
+    val spans = text.getSpans(0, text.length, EnrichedSpan::class.java)
+    var spanCount = 0
+
+    for (span in spans) {
+      val type = typeOf(span) ?: continue
+      tableOut.writeVarInt(type)
+      tableOut.writeVarInt(text.getSpanStart(span))
+      tableOut.writeVarInt(text.getSpanEnd(span))
+      tableOut.writeVarInt(text.getSpanFlags(span))
+
+      when (span) {
+        is EnrichedOrderedListSpan -> {
+          tableOut.writeVarInt(span.getIndex())
+        }
+
+        is EnrichedLinkSpan -> {
+          tableOut.writeVarInt(pooled(span.getUrl()))
+        }
+
+        is EnrichedImageSpan -> {
+          tableOut.writeVarInt(pooled(span.source ?: ""))
+          tableOut.writeVarInt(span.getWidth())
+          tableOut.writeVarInt(span.getHeight())
+        }
+
+        is EnrichedMentionSpan -> {
+          tableOut.writeVarInt(pooled(span.getText()))
+          tableOut.writeVarInt(pooled(span.getIndicator()))
+          val attributes = span.getAttributes()
+          tableOut.writeVarInt(attributes.size)
+          for ((key, value) in attributes) {
+            tableOut.writeVarInt(pooled(key))
+            tableOut.writeVarInt(pooled(value))
+          }
+        }
+      }
+      spanCount++
+    }
+
+    val result = ByteArrayOutputStream(table.size() + text.length + 16)
+    val out = DataOutputStream(result)
+    out.writeInt(MAGIC)
+    out.writeVarInt(VERSION)
+    out.writeVarInt(strings.size)
+    for (string in strings) {
+      out.writeString(string)
+    }
+    out.writeString(text.toString())
+    out.writeVarInt(spanCount)
+    table.writeTo(out)
+    out.flush()
+
+    return result.toByteArray()
+  }
+
+  /**
+   * Throws [IOException] if the snapshot is malformed or was written by a newer version. Snapshots may come
+   * from JS or a saved state, so every count, index and span is validated before it is used.
+   */
+  fun decode(
+    snapshot: ByteArray,
+    htmlStyle: HtmlStyle,
+  ): Spannable {
+    val input = DataInputStream(ByteArrayInputStream(snapshot))
+    if (input.readInt() != MAGIC) throw IOException("Not an enriched text snapshot")
+    val version = input.readVarInt()
+    if (version > VERSION) throw IOException("Unsupported snapshot version: $version")
+
+    val strings = Array(input.readCount()) { input.readString() }
+    val string = { index: Int -> strings.getOrNull(index) ?: throw IOException("Invalid string index: $index") }
+
+    val text = SpannableStringBuilder(input.readString())
+    val spanCount = input.readCount()
+    for (i in 0 until spanCount) {
+      val type = input.readVarInt()
+      val start = input.readVarInt()
+      val end = input.readVarInt()
+      val flags = input.readVarInt() and SUPPORTED_FLAGS
+
+      val span: Any =
+        when (type) {
+          TYPE_BOLD -> EnrichedBoldSpan(htmlStyle)
+          TYPE_ITALIC -> EnrichedItalicSpan(htmlStyle)
+          TYPE_UNDERLINE -> EnrichedUnderlineSpan(htmlStyle)
+          TYPE_STRIKETHROUGH -> EnrichedStrikeThroughSpan(htmlStyle)
+          TYPE_INLINE_CODE -> EnrichedInlineCodeSpan(htmlStyle)
+          TYPE_H1 -> EnrichedH1Span(htmlStyle)
+          TYPE_H2 -> EnrichedH2Span(htmlStyle)
+          TYPE_H3 -> EnrichedH3Span(htmlStyle)
+          TYPE_BLOCK_QUOTE -> EnrichedBlockQuoteSpan(htmlStyle)
+          TYPE_CODE_BLOCK -> EnrichedCodeBlockSpan(htmlStyle)
+          TYPE_UNORDERED_LIST -> EnrichedUnorderedListSpan(htmlStyle)
+          TYPE_ORDERED_LIST -> EnrichedOrderedListSpan(input.readVarInt(), htmlStyle)
+          TYPE_LINK -> EnrichedLinkSpan(string(input.readVarInt()), htmlStyle)
+          TYPE_IMAGE -> {
+            val source = string(input.readVarInt())
+            val width = input.readVarInt()
+            val height = input.readVarInt()
+            if (width < 0 || height < 0) throw IOException("Invalid image size: ${width}x$height")
+            EnrichedImageSpan.createEnrichedImageSpan(source, width, height)
+          }
+
+          TYPE_MENTION -> {
+            val mentionText = string(input.readVarInt())
+            val indicator = string(input.readVarInt())
+            val attributes = HashMap<String, String>()
+            repeat(input.readCount()) {
+              val key = string(input.readVarInt())
+              attributes[key] = string(input.readVarInt())
+            }
+            EnrichedMentionSpan(mentionText, indicator, attributes, htmlStyle)
+          }
+
+          else -> throw IOException("Unknown span type: $type")
+        }
+
+      if (start < 0 || end < start || end > text.length) throw IOException("Invalid span range: $start-$end")
+      validateFlags(text, start, end, flags)
+      text.setSpan(span, start, end, flags)
+    }
+
+    return text
+  }
+
+  // Rejects flags that setSpan would throw on
+  private fun validateFlags(
+    text: CharSequence,
+    start: Int,
+    end: Int,
+    flags: Int,
+  ) {
+    when (flags and Spanned.SPAN_POINT_MARK_MASK) {
+      Spanned.SPAN_MARK_MARK, Spanned.SPAN_MARK_POINT, Spanned.SPAN_POINT_POINT -> {
+        return
+      }
+
+      Spanned.SPAN_POINT_MARK -> {
+        if (start == end) throw IOException("Empty exclusive span at $start")
+      }
+
+      Spanned.SPAN_PARAGRAPH -> {
+        val isStartValid = start == 0 || text[start - 1] == '\n'
+        val isEndValid = end == text.length || text[end - 1] == '\n'
+        if (!isStartValid || !isEndValid) throw IOException("Paragraph span not on paragraph boundaries: $start-$end")
+      }
+
+      else -> {
+        throw IOException("Invalid span flags: $flags")
+      }
+    }
+  }
+
+  private fun typeOf(span: EnrichedSpan): Int? =
+    when (span) {
+      is EnrichedBoldSpan -> TYPE_BOLD
+      is EnrichedItalicSpan -> TYPE_ITALIC
+      is EnrichedUnderlineSpan -> TYPE_UNDERLINE
+      is EnrichedStrikeThroughSpan -> TYPE_STRIKETHROUGH
+      is EnrichedInlineCodeSpan -> TYPE_INLINE_CODE
+      is EnrichedH1Span -> TYPE_H1
+      is EnrichedH2Span -> TYPE_H2
+      is EnrichedH3Span -> TYPE_H3
+      is EnrichedBlockQuoteSpan -> TYPE_BLOCK_QUOTE
+      is EnrichedCodeBlockSpan -> TYPE_CODE_BLOCK
+      is EnrichedUnorderedListSpan -> TYPE_UNORDERED_LIST
+      is EnrichedOrderedListSpan -> TYPE_ORDERED_LIST
+      is EnrichedLinkSpan -> TYPE_LINK
+      is EnrichedImageSpan -> TYPE_IMAGE
+      is EnrichedMentionSpan -> TYPE_MENTION
+      else -> null
+    }
+
+  private fun DataOutputStream.writeString(value: String) {
+    val bytes = value.toByteArray(Charsets.UTF_8)
+    writeVarInt(bytes.size)
+    write(bytes)
+  }
+
+  private fun DataInputStream.readString(): String {
+    val bytes = ByteArray(readCount())
+    readFully(bytes)
+    return String(bytes, Charsets.UTF_8)
+  }
+
+  private fun DataOutputStream.writeVarInt(value: Int) {
+    var remaining = value
+    while (remaining and 0x7F.inv() != 0) {
+      writeByte((remaining and 0x7F) or 0x80)
+      remaining = remaining ushr 7
+    }
+    writeByte(remaining)
+  }
+
+  // Number of elements that follow, every element takes at least one byte
+  private fun DataInputStream.readCount(): Int {
+    val count = readVarInt()
+    if (count < 0 || count > available()) throw IOException("Invalid count: $count")
+    return count
+  }
+
+  private fun DataInputStream.readVarInt(): Int {
+    var result = 0
+    var shift = 0
+    while (shift < 32) {
+      val byte = readUnsignedByte()
+      result = result or ((byte and 0x7F) shl shift)
+      if (byte and 0x80 == 0) return result
+      shift += 7
+    }
+    throw IOException("Malformed varint")
+  }
+}
@@ -11,188 +11,118 @@ import com.swmansion.enriched.spans.EnrichedSpans
 class EnrichedSpanState(
   private val view: EnrichedTextInputView,
 ) {
-  private var previousPayload: WritableMap? = null
-
-  var boldStart: Int? = null
-    private set
-  var italicStart: Int? = null
-    private set
-  var underlineStart: Int? = null
-    private set
-  var strikethroughStart: Int? = null
-    private set
-  var inlineCodeStart: Int? = null
-    private set
-  var h1Start: Int? = null
-    private set
-  var h2Start: Int? = null
-    private set
-  var h3Start: Int? = null
-    private set
-  var codeBlockStart: Int? = null
-    private set
-  var blockQuoteStart: Int? = null
-    private set
-  var orderedListStart: Int? = null
-    private set
-  var unorderedListStart: Int? = null
-    private set
-  var linkStart: Int? = null
-    private set
-  var imageStart: Int? = null
-    private set
-  var mentionStart: Int? = null
-    private set
-
-  fun setBoldStart(start: Int?) {
-    this.boldStart = start
-    emitStateChangeEvent()
-  }
+  // Bit at the style's index is set when the style is active, its start is kept in starts
+  private var activeStyles: Int = 0
+  private val starts = IntArray(STYLES.size)
 
-  fun setItalicStart(start: Int?) {
-    this.italicStart = start
-    emitStateChangeEvent()
-  }
+  // Mask sent in the last event, -1 if none was sent yet
+  private var previousActiveStyles: Int = -1
+  private var batchDepth = 0
 
-  fun setUnderlineStart(start: Int?) {
-    this.underlineStart = start
-    emitStateChangeEvent()
-  }
+  val boldStart: Int?
+    get() = getStart(EnrichedSpans.BOLD)
+  val italicStart: Int?
+    get() = getStart(EnrichedSpans.ITALIC)
+  val underlineStart: Int?
+    get() = getStart(EnrichedSpans.UNDERLINE)
+  val strikethroughStart: Int?
+    get() = getStart(EnrichedSpans.STRIKETHROUGH)
+  val inlineCodeStart: Int?
+    get() = getStart(EnrichedSpans.INLINE_CODE)
+  val h1Start: Int?
+    get() = getStart(EnrichedSpans.H1)
+  val h2Start: Int?
+    get() = getStart(EnrichedSpans.H2)
+  val h3Start: Int?
+    get() = getStart(EnrichedSpans.H3)
+  val codeBlockStart: Int?
+    get() = getStart(EnrichedSpans.CODE_BLOCK)
+  val blockQuoteStart: Int?
+    get() = getStart(EnrichedSpans.BLOCK_QUOTE)
+  val orderedListStart: Int?
+    get() = getStart(EnrichedSpans.ORDERED_LIST)
+  val unorderedListStart: Int?
+    get() = getStart(EnrichedSpans.UNORDERED_LIST)
+  val linkStart: Int?
+    get() = getStart(EnrichedSpans.LINK)
+  val imageStart: Int?
+    get() = getStart(EnrichedSpans.IMAGE)
+  val mentionStart: Int?
+    get() = getStart(EnrichedSpans.MENTION)
 
-  fun setStrikethroughStart(start: Int?) {
-    this.strikethroughStart = start
-    emitStateChangeEvent()
-  }
+  fun setBoldStart(start: Int?) = setStart(EnrichedSpans.BOLD, start)
 
-  fun setInlineCodeStart(start: Int?) {
-    this.inlineCodeStart = start
-    emitStateChangeEvent()
-  }
+  fun setItalicStart(start: Int?) = setStart(EnrichedSpans.ITALIC, start)
 
-  fun setH1Start(start: Int?) {
-    this.h1Start = start
-    emitStateChangeEvent()
-  }
+  fun setUnderlineStart(start: Int?) = setStart(EnrichedSpans.UNDERLINE, start)
 
-  fun setH2Start(start: Int?) {
-    this.h2Start = start
-    emitStateChangeEvent()
-  }
+  fun setStrikethroughStart(start: Int?) = setStart(EnrichedSpans.STRIKETHROUGH, start)
 
-  fun setH3Start(start: Int?) {
-    this.h3Start = start
-    emitStateChangeEvent()
-  }
+  fun setInlineCodeStart(start: Int?) = setStart(EnrichedSpans.INLINE_CODE, start)
 
-  fun setCodeBlockStart(start: Int?) {
-    this.codeBlockStart = start
-    emitStateChangeEvent()
-  }
+  fun setH1Start(start: Int?) = setStart(EnrichedSpans.H1, start)
 
-  fun setBlockQuoteStart(start: Int?) {
-    this.blockQuoteStart = start
-    emitStateChangeEvent()
-  }
+  fun setH2Start(start: Int?) = setStart(EnrichedSpans.H2, start)
 
-  fun setOrderedListStart(start: Int?) {
-    this.orderedListStart = start
-    emitStateChangeEvent()
-  }
+  fun setH3Start(start: Int?) = setStart(EnrichedSpans.H3, start)
 
-  fun setUnorderedListStart(start: Int?) {
-    this.unorderedListStart = start
-    emitStateChangeEvent()
-  }
+  fun setCodeBlockStart(start: Int?) = setStart(EnrichedSpans.CODE_BLOCK, start)
 
-  fun setLinkStart(start: Int?) {
-    this.linkStart = start
-    emitStateChangeEvent()
-  }
+  fun setBlockQuoteStart(start: Int?) = setStart(EnrichedSpans.BLOCK_QUOTE, start)
 
-  fun setImageStart(start: Int?) {
-    this.imageStart = start
-    emitStateChangeEvent()
-  }
+  fun setOrderedListStart(start: Int?) = setStart(EnrichedSpans.ORDERED_LIST, start)
 
-  fun setMentionStart(start: Int?) {
-    this.mentionStart = start
-    emitStateChangeEvent()
-  }
+  fun setUnorderedListStart(start: Int?) = setStart(EnrichedSpans.UNORDERED_LIST, start)
+
+  fun setLinkStart(start: Int?) = setStart(EnrichedSpans.LINK, start)
+
+  fun setImageStart(start: Int?) = setStart(EnrichedSpans.IMAGE, start)
+
+  fun setMentionStart(start: Int?) = setStart(EnrichedSpans.MENTION, start)
 
   fun getStart(name: String): Int? {
-    val start =
-      when (name) {
-        EnrichedSpans.BOLD -> boldStart
-        EnrichedSpans.ITALIC -> italicStart
-        EnrichedSpans.UNDERLINE -> underlineStart
-        EnrichedSpans.STRIKETHROUGH -> strikethroughStart
-        EnrichedSpans.INLINE_CODE -> inlineCodeStart
-        EnrichedSpans.H1 -> h1Start
-        EnrichedSpans.H2 -> h2Start
-        EnrichedSpans.H3 -> h3Start
-        EnrichedSpans.CODE_BLOCK -> codeBlockStart
-        EnrichedSpans.BLOCK_QUOTE -> blockQuoteStart
-        EnrichedSpans.ORDERED_LIST -> orderedListStart
-        EnrichedSpans.UNORDERED_LIST -> unorderedListStart
-        EnrichedSpans.LINK -> linkStart
-        EnrichedSpans.IMAGE -> imageStart
-        EnrichedSpans.MENTION -> mentionStart
-        else -> null
-      }
-
-    return start
+    val index = STYLE_INDICES[name] ?: return null
+    if (activeStyles and (1 shl index) == 0) return null
+
+    return starts[index]
   }
 
   fun setStart(
     name: String,
     start: Int?,
   ) {
-    when (name) {
-      EnrichedSpans.BOLD -> setBoldStart(start)
-      EnrichedSpans.ITALIC -> setItalicStart(start)
-      EnrichedSpans.UNDERLINE -> setUnderlineStart(start)
-      EnrichedSpans.STRIKETHROUGH -> setStrikethroughStart(start)
-      EnrichedSpans.INLINE_CODE -> setInlineCodeStart(start)
-      EnrichedSpans.H1 -> setH1Start(start)
-      EnrichedSpans.H2 -> setH2Start(start)
-      EnrichedSpans.H3 -> setH3Start(start)
-      EnrichedSpans.CODE_BLOCK -> setCodeBlockStart(start)
-      EnrichedSpans.BLOCK_QUOTE -> setBlockQuoteStart(start)
-      EnrichedSpans.ORDERED_LIST -> setOrderedListStart(start)
-      EnrichedSpans.UNORDERED_LIST -> setUnorderedListStart(start)
-      EnrichedSpans.LINK -> setLinkStart(start)
-      EnrichedSpans.IMAGE -> setImageStart(start)
-      EnrichedSpans.MENTION -> setMentionStart(start)
+    val index = STYLE_INDICES[name] ?: return
+    if (start == null) {
+      activeStyles = activeStyles and (1 shl index).inv()
+    } else {
+      activeStyles = activeStyles or (1 shl index)
+      starts[index] = start
     }
+
+    if (batchDepth == 0) emitStateChangeEvent()
   }
 
-  private fun emitStateChangeEvent() {
-    val payload: WritableMap = Arguments.createMap()
-    payload.putBoolean("isBold", boldStart != null)
-    payload.putBoolean("isItalic", italicStart != null)
-    payload.putBoolean("isUnderline", underlineStart != null)
-    payload.putBoolean("isStrikeThrough", strikethroughStart != null)
-    payload.putBoolean("isInlineCode", inlineCodeStart != null)
-    payload.putBoolean("isH1", h1Start != null)
-    payload.putBoolean("isH2", h2Start != null)
-    payload.putBoolean("isH3", h3Start != null)
-    payload.putBoolean("isCodeBlock", codeBlockStart != null)
-    payload.putBoolean("isBlockQuote", blockQuoteStart != null)
-    payload.putBoolean("isOrderedList", orderedListStart != null)
-    payload.putBoolean("isUnorderedList", unorderedListStart != null)
-    payload.putBoolean("isLink", linkStart != null)
-    payload.putBoolean("isImage", imageStart != null)
-    payload.putBoolean("isMention", mentionStart != null)
+  // Applies many updates at once, the state event is emitted at most once, after the outermost batch
+  fun batch(block: () -> Unit) {
+    batchDepth++
+    try {
+      block()
+    } finally {
+      batchDepth--
+      if (batchDepth == 0) emitStateChangeEvent()
+    }
+  }
 
+  private fun emitStateChangeEvent() {
     // Do not emit event if payload is the same
-    if (previousPayload == payload) {
-      return
-    }
+    if (activeStyles == previousActiveStyles) return
 
-    previousPayload =
-      Arguments.createMap().apply {
-        merge(payload)
-      }
+    previousActiveStyles = activeStyles
+
+    val payload: WritableMap = Arguments.createMap()
+    for (i in STYLES.indices) {
+      payload.putBoolean(PAYLOAD_KEYS[i], activeStyles and (1 shl i) != 0)
+    }
 
     val context = view.context as ReactContext
     val surfaceId = UIManagerHelper.getSurfaceId(context)
@@ -209,5 +139,45 @@ class EnrichedSpanState(
 
   companion object {
     const val NAME = "ReactNativeEnrichedView"
+
+    private val STYLES =
+      arrayOf(
+        EnrichedSpans.BOLD,
+        EnrichedSpans.ITALIC,
+        EnrichedSpans.UNDERLINE,
+        EnrichedSpans.STRIKETHROUGH,
+        EnrichedSpans.INLINE_CODE,
+        EnrichedSpans.H1,
+        EnrichedSpans.H2,
+        EnrichedSpans.H3,
+        EnrichedSpans.CODE_BLOCK,
+        EnrichedSpans.BLOCK_QUOTE,
+        EnrichedSpans.ORDERED_LIST,
+        EnrichedSpans.UNORDERED_LIST,
+        EnrichedSpans.LINK,
+        EnrichedSpans.IMAGE,
+        EnrichedSpans.MENTION,
+      )
+
+    private val PAYLOAD_KEYS =
+      arrayOf(
+        "isBold",
+        "isItalic",
+        "isUnderline",
+        "isStrikeThrough",
+        "isInlineCode",
+        "isH1",
+        "isH2",
+        "isH3",
+        "isCodeBlock",
+        "isBlockQuote",
+        "isOrderedList",
+        "isUnorderedList",
+        "isLink",
+        "isImage",
+        "isMention",
+      )
+
+    private val STYLE_INDICES: Map<String, Int> = STYLES.withIndex().associate { it.value to it.index }
   }
 }
@@ -0,0 +1,134 @@
+package com.swmansion.enriched.utils
+
+/**
+ * Keeps the serialized HTML of every paragraph produced by the last [EnrichedParser.toHtml] pass.
+ * Entries touched by a text or span change are dropped, so the next pass only re-renders
+ * the edited paragraphs and stitches the remaining ones from the cache.
+ */
+class HtmlParagraphCache {
+  class Entry(
+    var start: Int,
+    var end: Int,
+    val tag: String,
+    val html: String,
+  )
+
+  // Sorted by start, entries never overlap
+  private var entries = ArrayList<Entry>()
+  private var nextEntries = ArrayList<Entry>()
+  private var cursor = 0
+
+  // Number of characters covered by entries
+  private var cachedLength = 0
+  private var nextCachedLength = 0
+
+  fun onTextReplaced(
+    start: Int,
+    removedCount: Int,
+    insertedCount: Int,
+  ) {
+    val from = dropEntries(start, start + removedCount)
+    val delta = insertedCount - removedCount
+    if (delta == 0) return
+
+    for (i in from until entries.size) {
+      val entry = entries[i]
+      entry.start += delta
+      entry.end += delta
+    }
+  }
+
+  fun invalidate(
+    start: Int,
+    end: Int,
+  ) {
+    dropEntries(start, end)
+  }
+
+  fun clear() {
+    entries.clear()
+    cachedLength = 0
+  }
+
+  // Number of characters of a text of the given length the next pass has to serialize
+  fun getUncachedLength(textLength: Int): Int = textLength - cachedLength
+
+  // Takes over the entries of a cache filled by a pass over a copy of the current text
+  fun replaceWith(other: HtmlParagraphCache) {
+    entries = other.entries
+    cachedLength = other.cachedLength
+    other.entries = ArrayList()
+    other.cachedLength = 0
+  }
+
+  fun beginPass() {
+    cursor = 0
+    nextEntries = ArrayList(entries.size)
+    nextCachedLength = 0
+  }
+
+  // Returns cached paragraph starting at `start`, if it is still valid for the given block end
+  fun find(
+    text: CharSequence,
+    start: Int,
+    blockEnd: Int,
+  ): Entry? {
+    while (cursor < entries.size && entries[cursor].start < start) {
+      cursor++
+    }
+
+    val entry = entries.getOrNull(cursor) ?: return null
+    if (entry.start != start || entry.end > blockEnd) return null
+    if (entry.end != blockEnd && text[entry.end] != '\n') return null
+
+    return entry
+  }
+
+  fun store(entry: Entry) {
+    nextEntries.add(entry)
+    nextCachedLength += entry.end - entry.start
+  }
+
+  fun endPass() {
+    entries = nextEntries
+    cachedLength = nextCachedLength
+    nextEntries = ArrayList()
+  }
+
+  // Removes all entries touching [start, end] and returns the index of the first entry after them
+  private fun dropEntries(
+    start: Int,
+    end: Int,
+  ): Int {
+    val from = firstEntryEndingAtOrAfter(start)
+    var to = from
+    while (to < entries.size && entries[to].start <= end) {
+      to++
+    }
+
+    if (to > from) {
+      val dropped = entries.subList(from, to)
+      for (entry in dropped) {
+        cachedLength -= entry.end - entry.start
+      }
+      dropped.clear()
+    }
+
+    return from
+  }
+
+  private fun firstEntryEndingAtOrAfter(position: Int): Int {
+    var low = 0
+    var high = entries.size
+    while (low < high) {
+      val mid = (low + high) ushr 1
+      if (entries[mid].end < position) {
+        low = mid + 1
+      } else {
+        high = mid
+      }
+    }
+
+    return low
+  }
+}
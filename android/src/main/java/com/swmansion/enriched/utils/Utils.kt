@@ -3,6 +3,8 @@ package com.swmansion.enriched.utils
 import android.text.Spannable
 import android.text.SpannableString
 import android.text.SpannableStringBuilder
+import android.text.Spanned
+import android.text.TextUtils
 import android.util.Log
 import com.swmansion.enriched.spans.interfaces.EnrichedBlockSpan
 import com.swmansion.enriched.spans.interfaces.EnrichedParagraphSpan
@@ -25,6 +27,24 @@ fun jsonStringToStringMap(json: String): Map<String, String> {
   return result
 }
 
+// Copy of the text and its spans that can be read from another thread while the original is being edited.
+// SpannableStringBuilder copies all spans in bulk, SpannableString would look up every span it already holds
+// on each setSpan. Watchers are copied too, but they are never notified, as the snapshot isn't modified
+fun Spanned.createSnapshot(): Spanned = SpannableStringBuilder(this)
+
+// Plain text as seen by JS, copies the characters once instead of going through toString and a regex
+fun CharSequence.removeZeroWidthSpaces(): String {
+  val chars = CharArray(this.length)
+  TextUtils.getChars(this, 0, this.length, chars, 0)
+
+  var count = 0
+  for (c in chars) {
+    if (c != '\u200B') chars[count++] = c
+  }
+
+  return String(chars, 0, count)
+}
+
 fun Spannable.getSafeSpanBoundaries(
   start: Int,
   end: Int,
@@ -66,12 +86,14 @@ fun Spannable.mergeSpannables(
   start: Int,
   end: Int,
   string: String,
-): Spannable = this.mergeSpannables(start, end, SpannableString(string))
+  paragraphIndex: EnrichedParagraphIndex? = null,
+): Spannable = this.mergeSpannables(start, end, SpannableString(string), paragraphIndex)
 
 fun Spannable.mergeSpannables(
   start: Int,
   end: Int,
   spannable: Spannable,
+  paragraphIndex: EnrichedParagraphIndex? = null,
 ): Spannable {
   var finalStart = start
   var finalEnd = end
@@ -81,7 +103,8 @@ fun Spannable.mergeSpannables(
   val startParagraphSpans = spannable.getSpans(0, 0, EnrichedParagraphSpan::class.java)
   val endBlockSpans = spannable.getSpans(this.length, this.length, EnrichedBlockSpan::class.java)
   val endParagraphSpans = spannable.getSpans(this.length, this.length, EnrichedParagraphSpan::class.java)
-  val (paragraphStart, paragraphEnd) = this.getParagraphBounds(start, end)
+  val (paragraphStart, paragraphEnd) =
+    paragraphIndex?.getParagraphBounds(this, start, end) ?: this.getParagraphBounds(start, end)
   val isNewLineStart = startBlockSpans.isNotEmpty() || startParagraphSpans.isNotEmpty()
   val isNewLineEnd = endBlockSpans.isNotEmpty() || endParagraphSpans.isNotEmpty()
 
@@ -2,21 +2,55 @@ package com.swmansion.enriched.watchers
 
 import android.text.SpanWatcher
 import android.text.Spannable
+import android.text.Spanned
 import android.text.style.ParagraphStyle
+import android.util.Log
 import com.facebook.react.bridge.ReactContext
 import com.facebook.react.uimanager.UIManagerHelper
 import com.swmansion.enriched.EnrichedTextInputView
+import com.swmansion.enriched.events.OnChangeDocumentEvent
 import com.swmansion.enriched.events.OnChangeHtmlEvent
 import com.swmansion.enriched.spans.EnrichedOrderedListSpan
 import com.swmansion.enriched.spans.interfaces.EnrichedHeadingSpan
 import com.swmansion.enriched.spans.interfaces.EnrichedSpan
+import com.swmansion.enriched.utils.EnrichedDocument
+import com.swmansion.enriched.utils.EnrichedExecutors
 import com.swmansion.enriched.utils.EnrichedParser
+import com.swmansion.enriched.utils.HtmlParagraphCache
+import com.swmansion.enriched.utils.createSnapshot
 import com.swmansion.enriched.utils.getSafeSpanBoundaries
 
 class EnrichedSpanWatcher(
   private val view: EnrichedTextInputView,
 ) : SpanWatcher {
   private var previousHtml: String? = null
+  private var previousDocument: EnrichedDocument? = null
+
+  // Incremented on every serialization request, written on the main thread only
+  @Volatile private var htmlRevision = 0
+  val htmlCache = HtmlParagraphCache()
+
+  // Shifts applied to the following spans by text edits of the current main loop message. Android reports them
+  // right after each edit, so the list is cleared once the message is handled
+  private class Shift(
+    val from: Int,
+    val delta: Int,
+  )
+
+  private val pendingShifts = ArrayList<Shift>()
+  private val clearShiftsRunnable = Runnable { pendingShifts.clear() }
+
+  fun onTextReplaced(
+    start: Int,
+    removedCount: Int,
+    insertedCount: Int,
+  ) {
+    htmlCache.onTextReplaced(start, removedCount, insertedCount)
+    if (removedCount == insertedCount) return
+
+    if (pendingShifts.isEmpty()) EnrichedExecutors.mainHandler.post(clearShiftsRunnable)
+    pendingShifts.add(Shift(start + removedCount, insertedCount - removedCount))
+  }
 
   override fun onSpanAdded(
     text: Spannable,
@@ -24,6 +58,8 @@ class EnrichedSpanWatcher(
     start: Int,
     end: Int,
   ) {
+    invalidateHtmlCache(what, start, end)
+    view.deltaEmitter.onSpanAdded(what, start, end)
     updateNextLineLayout(what, text, end)
     updateUnorderedListSpans(what, text, end)
     emitEvent(text, what)
@@ -35,6 +71,8 @@ class EnrichedSpanWatcher(
     start: Int,
     end: Int,
   ) {
+    invalidateHtmlCache(what, start, end)
+    view.deltaEmitter.onSpanRemoved(what)
     updateNextLineLayout(what, text, end)
     updateUnorderedListSpans(what, text, end)
     emitEvent(text, what)
@@ -48,7 +86,41 @@ class EnrichedSpanWatcher(
     nstart: Int,
     nend: Int,
   ) {
-    // Do nothing for now
+    // Spans shifted as a whole by a text change are already handled by the text watcher, which also bumped
+    // the document revision. Other changes bump it when invalidating the cache, so the HTML cached at the end
+    // of the edit stays valid
+    if (isShiftedByTextEdit(ostart, oend, nstart, nend)) return
+
+    // Only paragraphs between the old and new boundaries gain or lose the span
+    invalidateHtmlCache(what, minOf(ostart, nstart), maxOf(ostart, nstart))
+    invalidateHtmlCache(what, minOf(oend, nend), maxOf(oend, nend))
+    view.deltaEmitter.onSpanChanged(what, ostart, oend, nstart, nend)
+  }
+
+  private fun isShiftedByTextEdit(
+    ostart: Int,
+    oend: Int,
+    nstart: Int,
+    nend: Int,
+  ): Boolean {
+    // Spans within the replaced range are reported with unchanged bounds
+    if (ostart == nstart && oend == nend) return true
+
+    val delta = nstart - ostart
+    if (nend - oend != delta) return false
+
+    return pendingShifts.any { it.delta == delta && ostart > it.from }
+  }
+
+  private fun invalidateHtmlCache(
+    what: Any,
+    start: Int,
+    end: Int,
+  ) {
+    if (what !is EnrichedSpan) return
+
+    view.bumpDocumentRevision()
+    htmlCache.invalidate(start, end)
   }
 
   private fun updateUnorderedListSpans(
@@ -82,13 +154,105 @@ class EnrichedSpanWatcher(
     s: Spannable,
     what: Any?,
   ) {
-    // Do not parse spannable and emit event if onChangeHtml is not provided
-    if (!view.shouldEmitHtml) return
+    // Do not parse spannable and emit event if neither onChangeHtml nor onChangeDocument is provided
+    if (!view.shouldEmitHtml && !view.shouldEmitDocument) return
 
     // Emit event only if we change one of ours spans
     if (what != null && what !is EnrichedSpan) return
 
-    val html = EnrichedParser.toHtml(s)
+    // Serialization is deferred until the edit ends, and possibly longer depending on the emission policy
+    view.changeEventScheduler.schedule()
+  }
+
+  fun emitChangeEvents(s: Spannable) {
+    if (view.shouldEmitHtml) emitHtmlEvent(s)
+    if (view.shouldEmitDocument) emitDocumentEvent(s)
+  }
+
+  private fun emitHtmlEvent(s: Spannable) {
+    val revision = ++htmlRevision
+    val option = view.htmlOutputOption
+    val cachedHtml = view.getCachedHtml(option)
+    if (cachedHtml != null) {
+      dispatchHtmlEvent(cachedHtml)
+      return
+    }
+
+    serializeHtml(s, option, { revision != htmlRevision }) { html ->
+      // Discard stale results
+      if (html != null && revision == htmlRevision) dispatchHtmlEvent(html)
+    }
+  }
+
+  /**
+   * Serializes the text and caches the result in the view. Only paragraphs changed since the previous pass are
+   * serialized on the main thread, the remaining ones are copied from the paragraph cache. If that would still
+   * serialize too much of a large document, eg. right after setValue, the whole document is serialized from
+   * a snapshot in the background instead, and its paragraphs fill the cache if the text hasn't changed meanwhile.
+   * The callback is invoked on the main thread, with null if serialization failed.
+   */
+  fun serializeHtml(
+    s: Spannable,
+    option: Int,
+    isStale: () -> Boolean = { false },
+    callback: (String?) -> Unit,
+  ) {
+    if (isIncremental(s)) {
+      callback(serializeHtmlIncrementally(s, option))
+      return
+    }
+
+    val documentRevision = view.documentRevision
+    val snapshot = s.createSnapshot()
+    EnrichedExecutors.background.execute {
+      // Skip serialization if a newer one is already queued
+      if (isStale()) return@execute
+
+      val snapshotCache = HtmlParagraphCache()
+      val html = toHtmlOrNull(snapshot, snapshotCache, option)
+      EnrichedExecutors.mainHandler.post {
+        if (html != null && view.documentRevision == documentRevision && view.htmlOutputOption == option) {
+          htmlCache.replaceWith(snapshotCache)
+          view.cacheHtml(documentRevision, option, html)
+        }
+        callback(html)
+      }
+    }
+  }
+
+  // Serializes the text on the calling thread if only a small part of it changed since the previous pass,
+  // returns null otherwise or if serialization failed
+  fun serializeHtmlIfIncremental(
+    s: Spannable,
+    option: Int,
+  ): String? = if (isIncremental(s)) serializeHtmlIncrementally(s, option) else null
+
+  private fun isIncremental(s: Spannable): Boolean =
+    htmlCache.getUncachedLength(s.length) < EnrichedTextInputView.ASYNC_SERIALIZATION_THRESHOLD
+
+  private fun serializeHtmlIncrementally(
+    s: Spannable,
+    option: Int,
+  ): String? {
+    val documentRevision = view.documentRevision
+    val html = toHtmlOrNull(s, htmlCache, option)
+    if (html != null) view.cacheHtml(documentRevision, option, html)
+    return html
+  }
+
+  private fun toHtmlOrNull(
+    s: Spanned,
+    cache: HtmlParagraphCache,
+    option: Int,
+  ): String? =
+    try {
+      EnrichedParser.toHtml(s, cache, option)
+    } catch (e: Exception) {
+      Log.e("EnrichedSpanWatcher", "Error serializing HTML: ${e.message}")
+      null
+    }
+
+  private fun dispatchHtmlEvent(html: String) {
     if (html == previousHtml) return
 
     previousHtml = html
@@ -104,4 +268,22 @@ class EnrichedSpanWatcher(
       ),
     )
   }
+
+  private fun emitDocumentEvent(s: Spannable) {
+    val document = EnrichedDocument.fromSpanned(s)
+    if (document == previousDocument) return
+
+    previousDocument = document
+    val context = view.context as ReactContext
+    val surfaceId = UIManagerHelper.getSurfaceId(context)
+    val dispatcher = UIManagerHelper.getEventDispatcherForReactTag(context, view.id)
+    dispatcher?.dispatchEvent(
+      OnChangeDocumentEvent(
+        surfaceId,
+        view.id,
+        document,
+        view.experimentalSynchronousEvents,
+      ),
+    )
+  }
 }
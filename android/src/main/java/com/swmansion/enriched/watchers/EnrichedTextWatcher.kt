@@ -2,10 +2,7 @@ package com.swmansion.enriched.watchers
 
 import android.text.Editable
 import android.text.TextWatcher
-import com.facebook.react.bridge.ReactContext
-import com.facebook.react.uimanager.UIManagerHelper
 import com.swmansion.enriched.EnrichedTextInputView
-import com.swmansion.enriched.events.OnChangeTextEvent
 
 class EnrichedTextWatcher(
   private val view: EnrichedTextInputView,
@@ -19,7 +16,13 @@ class EnrichedTextWatcher(
     count: Int,
     after: Int,
   ) {
+    view.beginEdit()
     previousTextLength = s?.length ?: 0
+    if (s != null) {
+      view.paragraphIndex.onBeforeTextChanged(s, start, count)
+      view.textEmitter.onBeforeTextChanged(s, start, count)
+    }
+    view.spanWatcher?.onTextReplaced(start, count, after)
   }
 
   override fun onTextChanged(
@@ -29,37 +32,43 @@ class EnrichedTextWatcher(
     count: Int,
   ) {
     endCursorPosition = start + count
+    view.bumpDocumentRevision()
+    if (s != null) {
+      view.paragraphIndex.onTextChanged(s, start, before, count)
+      view.textEmitter.onTextChanged(s, start, before, count)
+    }
     view.layoutManager.invalidateLayout()
+    if (s != null) view.deltaEmitter.onTextChanged(s, start, before, count)
     view.isRemovingMany = !view.isDuringTransaction && before > count + 1
   }
 
   override fun afterTextChanged(s: Editable?) {
-    if (s == null) return
-    emitEvents(s)
+    try {
+      if (s == null) return
+      emitEvents(s)
 
-    if (view.isDuringTransaction) return
-    applyStyles(s)
+      if (view.isDuringTransaction) return
+      applyStyles(s)
+    } finally {
+      // Started in beforeTextChanged, ends after styles are re-applied
+      view.endEdit()
+    }
   }
 
   private fun applyStyles(s: Editable) {
-    view.inlineStyles?.afterTextChanged(s, endCursorPosition)
-    view.paragraphStyles?.afterTextChanged(s, endCursorPosition, previousTextLength)
-    view.listStyles?.afterTextChanged(s, endCursorPosition, previousTextLength)
-    view.parametrizedStyles?.afterTextChanged(s, endCursorPosition)
+    val spanState = view.spanState ?: return
+
+    // Style handlers may update the state several times, only the final state is emitted
+    spanState.batch {
+      view.inlineStyles?.afterTextChanged(s, endCursorPosition)
+      view.paragraphStyles?.afterTextChanged(s, endCursorPosition, previousTextLength)
+      view.listStyles?.afterTextChanged(s, endCursorPosition, previousTextLength)
+      view.parametrizedStyles?.afterTextChanged(s, endCursorPosition)
+    }
   }
 
   private fun emitEvents(s: Editable) {
-    val context = view.context as ReactContext
-    val surfaceId = UIManagerHelper.getSurfaceId(context)
-    val dispatcher = UIManagerHelper.getEventDispatcherForReactTag(context, view.id)
-    dispatcher?.dispatchEvent(
-      OnChangeTextEvent(
-        surfaceId,
-        view.id,
-        s,
-        view.experimentalSynchronousEvents,
-      ),
-    )
+    view.textEmitter.emit(s)
     view.spanWatcher?.emitEvent(s, null)
   }
 }
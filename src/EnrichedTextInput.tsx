@@ -9,9 +9,12 @@ import {
 import EnrichedTextInputNativeComponent, {
   Commands,
   type NativeProps,
+  type OnChangeDeltaEvent,
+  type OnChangeDocumentEvent,
   type OnChangeHtmlEvent,
   type OnChangeSelectionEvent,
   type OnChangeStateEvent,
+  type OnChangeTextDeltaEvent,
   type OnChangeTextEvent,
   type OnLinkDetected,
   type OnMentionEvent,
@@ -20,19 +23,21 @@ import EnrichedTextInputNativeComponent, {
   type OnRequestHtmlResultEvent,
   type MentionStyleProperties,
 } from './EnrichedTextInputNativeComponent';
-import type {
-  ColorValue,
-  HostInstance,
-  MeasureInWindowOnSuccessCallback,
-  MeasureLayoutOnSuccessCallback,
-  MeasureOnSuccessCallback,
-  NativeMethods,
-  NativeSyntheticEvent,
-  TextStyle,
-  ViewProps,
-  ViewStyle,
+import {
+  findNodeHandle,
+  type ColorValue,
+  type HostInstance,
+  type MeasureInWindowOnSuccessCallback,
+  type MeasureLayoutOnSuccessCallback,
+  type MeasureOnSuccessCallback,
+  type NativeMethods,
+  type NativeSyntheticEvent,
+  type TextStyle,
+  type ViewProps,
+  type ViewStyle,
 } from 'react-native';
 import { normalizeHtmlStyle } from './normalizeHtmlStyle';
+import NativeEnrichedTextInputModule from './NativeEnrichedTextInputModule';
 
 export interface EnrichedTextInputInstance extends NativeMethods {
   // General commands
@@ -41,6 +46,9 @@ export interface EnrichedTextInputInstance extends NativeMethods {
   setValue: (value: string) => void;
   setSelection: (start: number, end: number) => void;
   getHTML: () => Promise<string>;
+  getText: () => Promise<string>;
+  exportSnapshot: () => Promise<string>;
+  importSnapshot: (snapshot: string) => Promise<void>;
 
   // Text formatting commands
   toggleBold: () => void;
@@ -135,6 +143,15 @@ export interface EnrichedTextInputProps extends Omit<ViewProps, 'children'> {
   onBlur?: () => void;
   onChangeText?: (e: NativeSyntheticEvent<OnChangeTextEvent>) => void;
   onChangeHtml?: (e: NativeSyntheticEvent<OnChangeHtmlEvent>) => void;
+  /**
+   * Android only. Cheaper alternative to onChangeHtml for consumers that
+   * only need the plain text and style ranges.
+   */
+  onChangeDocument?: (e: NativeSyntheticEvent<OnChangeDocumentEvent>) => void;
+  /**
+   * Android only. Emits edits as operations on the raw text instead of the whole content.
+   */
+  onChangeDelta?: (e: NativeSyntheticEvent<OnChangeDeltaEvent>) => void;
   onChangeState?: (e: NativeSyntheticEvent<OnChangeStateEvent>) => void;
   onLinkDetected?: (e: OnLinkDetected) => void;
   onMentionDetected?: (e: OnMentionDetected) => void;
@@ -150,6 +167,40 @@ export interface EnrichedTextInputProps extends Omit<ViewProps, 'children'> {
    * Disabled by default.
    */
   androidExperimentalSynchronousEvents?: boolean;
+  /**
+   * If true, Android will output non-ASCII characters in the HTML as they are,
+   * instead of escaping them as numeric character references.
+   * Only markup and control characters are escaped then.
+   * Disabled by default.
+   */
+  androidRawUnicodeHtml?: boolean;
+  /**
+   * Controls when Android emits onChangeHtml and onChangeDocument.
+   * 'immediate' emits after every edit, 'debounced' once the input has been
+   * quiet for androidHtmlEmissionDelay milliseconds and 'onIdle' when the UI
+   * thread becomes idle. Pending changes are always emitted on blur, before
+   * getHTML resolves and before the input unmounts.
+   * Defaults to 'immediate'.
+   */
+  androidHtmlEmission?: 'immediate' | 'debounced' | 'onIdle';
+  /**
+   * Delay used by the 'debounced' androidHtmlEmission, in milliseconds.
+   * Defaults to 300.
+   */
+  androidHtmlEmissionDelay?: number;
+  /**
+   * Controls how Android sends the text for onChangeText. 'full' sends the
+   * whole text after every edit, 'incremental' only sends the changed ranges
+   * and the text is rebuilt in JS, which is cheaper for long content.
+   * Defaults to 'full'.
+   */
+  androidTextEmission?: 'full' | 'incremental';
+  /**
+   * Maximum length of the text, in characters, that getHTML and getText read
+   * synchronously on Android. Longer content is read asynchronously.
+   * Defaults to 100000.
+   */
+  androidSynchronousReadLimit?: number;
 }
 
 const nullthrows = <T,>(value: T | null | undefined): T => {
@@ -190,6 +241,8 @@ export const EnrichedTextInput = ({
   onBlur,
   onChangeText,
   onChangeHtml,
+  onChangeDocument,
+  onChangeDelta,
   onChangeState,
   onLinkDetected,
   onMentionDetected,
@@ -198,11 +251,17 @@ export const EnrichedTextInput = ({
   onEndMention,
   onChangeSelection,
   androidExperimentalSynchronousEvents = false,
+  androidRawUnicodeHtml = false,
+  androidHtmlEmission = 'immediate',
+  androidHtmlEmissionDelay = 300,
+  androidTextEmission = 'full',
+  androidSynchronousReadLimit = 100000,
   scrollEnabled = true,
   ...rest
 }: EnrichedTextInputProps) => {
   const nativeRef = useRef<ComponentType | null>(null);
 
+  const incrementalText = useRef('');
   const nextHtmlRequestId = useRef(1);
   const pendingHtmlRequests = useRef(new Map<number, HtmlRequest>());
 
@@ -252,12 +311,65 @@ export const EnrichedTextInput = ({
       Commands.setValue(nullthrows(nativeRef.current), value);
     },
     getHTML: () => {
+      const viewTag = findNodeHandle(nativeRef.current);
+      const html =
+        viewTag != null
+          ? NativeEnrichedTextInputModule?.getHtml(
+              viewTag,
+              androidSynchronousReadLimit
+            )
+          : null;
+      if (html != null) {
+        return Promise.resolve(html);
+      }
+
       return new Promise<string>((resolve, reject) => {
         const requestId = nextHtmlRequestId.current++;
         pendingHtmlRequests.current.set(requestId, { resolve, reject });
         Commands.requestHTML(nullthrows(nativeRef.current), requestId);
       });
     },
+    getText: () => {
+      if (NativeEnrichedTextInputModule == null) {
+        return Promise.reject(
+          new Error('getText is only supported on Android')
+        );
+      }
+
+      const viewTag = nullthrows(findNodeHandle(nativeRef.current));
+      const text = NativeEnrichedTextInputModule.getText(
+        viewTag,
+        androidSynchronousReadLimit
+      );
+      if (text != null) {
+        return Promise.resolve(text);
+      }
+
+      return NativeEnrichedTextInputModule.requestText(viewTag);
+    },
+    exportSnapshot: () => {
+      if (NativeEnrichedTextInputModule == null) {
+        return Promise.reject(
+          new Error('exportSnapshot is only supported on Android')
+        );
+      }
+
+      return NativeEnrichedTextInputModule.exportSnapshot(
+        nullthrows(findNodeHandle(nativeRef.current))
+      );
+    },
+    importSnapshot: (snapshot: string) => {
+      if (NativeEnrichedTextInputModule == null) {
+        return Promise.reject(
+          new Error('importSnapshot is only supported on Android')
+        );
+      }
+
+      return NativeEnrichedTextInputModule.importSnapshot(
+        nullthrows(findNodeHandle(nativeRef.current)),
+        snapshot
+      );
+    },
     toggleBold: () => {
       Commands.toggleBold(nullthrows(nativeRef.current));
     },
@@ -355,6 +467,22 @@ export const EnrichedTextInput = ({
     onMentionDetected?.({ text, indicator, attributes });
   };
 
+  const handleChangeTextDelta = (
+    e: NativeSyntheticEvent<OnChangeTextDeltaEvent>
+  ) => {
+    const { value, changes } = e.nativeEvent;
+    let text = value ?? incrementalText.current;
+    for (const change of changes) {
+      text =
+        text.slice(0, change.start) +
+        change.text +
+        text.slice(change.start + change.deleteCount);
+    }
+
+    incrementalText.current = text;
+    onChangeText?.({ ...e, nativeEvent: { value: text } });
+  };
+
   const handleRequestHtmlResult = (
     e: NativeSyntheticEvent<OnRequestHtmlResultEvent>
   ) => {
@@ -388,8 +516,13 @@ export const EnrichedTextInput = ({
       onInputFocus={onFocus}
       onInputBlur={onBlur}
       onChangeText={onChangeText}
+      onChangeTextDelta={handleChangeTextDelta}
       onChangeHtml={onChangeHtml}
       isOnChangeHtmlSet={onChangeHtml !== undefined}
+      onChangeDocument={onChangeDocument}
+      isOnChangeDocumentSet={onChangeDocument !== undefined}
+      onChangeDelta={onChangeDelta}
+      isOnChangeDeltaSet={onChangeDelta !== undefined}
       onChangeState={onChangeState}
       onLinkDetected={handleLinkDetected}
       onMentionDetected={handleMentionDetected}
@@ -399,6 +532,10 @@ export const EnrichedTextInput = ({
       androidExperimentalSynchronousEvents={
         androidExperimentalSynchronousEvents
       }
+      androidRawUnicodeHtml={androidRawUnicodeHtml}
+      androidHtmlEmission={androidHtmlEmission}
+      androidHtmlEmissionDelay={androidHtmlEmissionDelay}
+      androidTextEmission={androidTextEmission}
       scrollEnabled={scrollEnabled}
       {...rest}
     />
@@ -12,10 +12,59 @@ export interface OnChangeTextEvent {
   value: string;
 }
 
+export interface OnChangeTextDeltaChange {
+  start: Int32;
+  deleteCount: Int32;
+  text: string;
+}
+
+export interface OnChangeTextDeltaEvent {
+  revision: Int32;
+  changes: OnChangeTextDeltaChange[];
+  value?: string;
+}
+
 export interface OnChangeHtmlEvent {
   value: string;
 }
 
+export interface OnChangeDocumentRange {
+  type: string;
+  start: Int32;
+  end: Int32;
+  // Record<string, string>, codegen does not support Records
+  attrs: UnsafeMixed;
+}
+
+export interface OnChangeDocumentEvent {
+  text: string;
+  ranges: OnChangeDocumentRange[];
+}
+
+export interface OnChangeDeltaOp {
+  // 'retain' | 'delete' | 'insert' | 'addFormat' | 'removeFormat'
+  op: string;
+  count?: Int32;
+  text?: string;
+  id?: Int32;
+  type?: string;
+  start?: Int32;
+  end?: Int32;
+  // Record<string, string>, codegen does not support Records
+  attrs?: UnsafeMixed;
+}
+
+export interface OnChangeDeltaSnapshot {
+  text: string;
+  ranges: OnChangeDeltaOp[];
+}
+
+export interface OnChangeDeltaEvent {
+  revision: Int32;
+  ops: OnChangeDeltaOp[];
+  snapshot?: OnChangeDeltaSnapshot;
+}
+
 export interface OnChangeStateEvent {
   isBold: boolean;
   isItalic: boolean;
@@ -142,7 +191,10 @@ export interface NativeProps extends ViewProps {
   onInputFocus?: DirectEventHandler<null>;
   onInputBlur?: DirectEventHandler<null>;
   onChangeText?: DirectEventHandler<OnChangeTextEvent>;
+  onChangeTextDelta?: DirectEventHandler<OnChangeTextDeltaEvent>;
   onChangeHtml?: DirectEventHandler<OnChangeHtmlEvent>;
+  onChangeDocument?: DirectEventHandler<OnChangeDocumentEvent>;
+  onChangeDelta?: DirectEventHandler<OnChangeDeltaEvent>;
   onChangeState?: DirectEventHandler<OnChangeStateEvent>;
   onLinkDetected?: DirectEventHandler<OnLinkDetected>;
   onMentionDetected?: DirectEventHandler<OnMentionDetectedInternal>;
@@ -160,6 +212,15 @@ export interface NativeProps extends ViewProps {
 
   // Used for onChangeHtml event performance optimization
   isOnChangeHtmlSet: boolean;
+  isOnChangeDocumentSet: boolean;
+  isOnChangeDeltaSet: boolean;
+
+  androidRawUnicodeHtml: boolean;
+  // 'immediate' | 'debounced' | 'onIdle'
+  androidHtmlEmission: string;
+  androidHtmlEmissionDelay: Int32;
+  // 'full' | 'incremental'
+  androidTextEmission: string;
 
   // Experimental
   androidExperimentalSynchronousEvents: boolean;
@@ -0,0 +1,14 @@
+import { TurboModuleRegistry, type TurboModule } from 'react-native';
+
+export interface Spec extends TurboModule {
+  // Return null when the content can't be read synchronously, e.g. it's longer than maxTextLength
+  getHtml(viewTag: number, maxTextLength: number): string | null;
+  getText(viewTag: number, maxTextLength: number): string | null;
+  requestText(viewTag: number): Promise<string>;
+  // Snapshots are base64 encoded
+  exportSnapshot(viewTag: number): Promise<string>;
+  importSnapshot(viewTag: number, snapshot: string): Promise<void>;
+}
+
+// Only implemented on Android
+export default TurboModuleRegistry.get<Spec>('EnrichedTextInputModule');
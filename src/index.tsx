@@ -2,6 +2,11 @@ export * from './EnrichedTextInput';
 export type {
   OnChangeTextEvent,
   OnChangeHtmlEvent,
+  OnChangeDocumentEvent,
+  OnChangeDocumentRange,
+  OnChangeDeltaEvent,
+  OnChangeDeltaOp,
+  OnChangeDeltaSnapshot,
   OnChangeStateEvent,
   OnLinkDetected,
   OnMentionDetected,